@@ -0,0 +1,35 @@
+package de.ctrlaltdel.jenkins.plugins.satellite.benchmarks;
+
+import java.io.File;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * BenchmarkRunner, runs the benchmarks with the GC profiler and stores the results as JSON in
+ * <code>results/&lt;version&gt;.json</code>, so ns/op and allocation rate can be compared across releases.
+ * <p>
+ * Arguments are the usual JMH options, e.g. a benchmark regex or <code>-p packages=10000</code>.
+ *
+ * @author ds
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        String version = System.getProperty("satellite.version", BenchmarkRunner.class.getPackage().getImplementationVersion());
+        File results = new File("results");
+        results.mkdirs();
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(new File(results, (version == null ? "snapshot" : version) + ".json").getPath())
+                .build();
+        new Runner(options).run();
+    }
+
+}
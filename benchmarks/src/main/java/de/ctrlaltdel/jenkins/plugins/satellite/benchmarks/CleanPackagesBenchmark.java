@@ -0,0 +1,69 @@
+package de.ctrlaltdel.jenkins.plugins.satellite.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.ctrlaltdel.jenkins.plugins.satellite.PackageRecord;
+import de.ctrlaltdel.jenkins.plugins.satellite.builder.CleanPackagesBuilder;
+
+/**
+ * CleanPackagesBenchmark, the pattern and max. age selection of the clean channel build step
+ * @author ds
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CleanPackagesBenchmark {
+
+    @Param({ "10000", "100000" })
+    public int packages;
+
+    @Param({ "sample-.*", "" })
+    public String packagePattern;
+
+    @Param({ "30" })
+    public int maxAge;
+
+    private List<PackageRecord> records;
+    private Pattern pattern;
+    private PrintStream logger;
+
+    @Setup
+    public void setUp() {
+        records = Packages.records(packages, 42L);
+        pattern = packagePattern.length() == 0 ? null : Pattern.compile(packagePattern);
+        logger = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        });
+    }
+
+    @Benchmark
+    public List<Integer> select() {
+        CleanPackagesBuilder.Selection selection = new CleanPackagesBuilder.Selection(pattern, Packages.NOW, maxAge, logger);
+        for (PackageRecord record : records) {
+            selection.handle(record);
+        }
+        return selection.getIds();
+    }
+
+}
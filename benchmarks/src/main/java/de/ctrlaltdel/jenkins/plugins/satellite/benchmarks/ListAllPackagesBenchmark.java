@@ -0,0 +1,73 @@
+package de.ctrlaltdel.jenkins.plugins.satellite.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.ctrlaltdel.jenkins.plugins.satellite.PackageRecord;
+import de.ctrlaltdel.jenkins.plugins.satellite.XmlRpcStreaming;
+
+/**
+ * ListAllPackagesBenchmark, decoding of a <code>channel.software.listAllPackages</code> response into package records
+ * @author ds
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class ListAllPackagesBenchmark {
+
+    @Param({ "10000", "100000" })
+    public int packages;
+
+    private byte[] response;
+
+    @Setup
+    public void setUp() {
+        response = Packages.listAllPackages(packages, 42L);
+    }
+
+    /**
+     * decode, what <code>SatelliteConnection.listPackages</code> does with the response
+     */
+    @Benchmark
+    public List<PackageRecord> decode() throws XmlRpcException {
+        final List<PackageRecord> records = new ArrayList<PackageRecord>(packages);
+        final PackageRecord.Decoder decoder = new PackageRecord.Decoder();
+        XmlRpcStreaming.readArray(new ByteArrayInputStream(response), new XmlRpcStreaming.Handler() {
+            public void struct(Map<String, Object> struct) {
+                records.add(decoder.decode(struct));
+            }
+        });
+        return records;
+    }
+
+    /**
+     * count, only the streaming parser, without building records
+     */
+    @Benchmark
+    public int count() throws XmlRpcException {
+        return XmlRpcStreaming.readArray(new ByteArrayInputStream(response), new XmlRpcStreaming.Handler() {
+            public void struct(Map<String, Object> struct) {
+            }
+        });
+    }
+
+}
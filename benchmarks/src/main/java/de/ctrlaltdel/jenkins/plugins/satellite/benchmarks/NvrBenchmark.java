@@ -0,0 +1,51 @@
+package de.ctrlaltdel.jenkins.plugins.satellite.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.ctrlaltdel.jenkins.plugins.satellite.NVR;
+
+/**
+ * NvrBenchmark, parsing of rpm file names into name, version and release
+ * @author ds
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NvrBenchmark {
+
+    private String[] rpmNames;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        rpmNames = Packages.rpmNames(1024);
+    }
+
+    @Benchmark
+    public NVR parse() {
+        next = (next + 1) & (rpmNames.length - 1);
+        return new NVR(rpmNames[next]);
+    }
+
+    @Benchmark
+    public void parseAndFormat(Blackhole blackhole) {
+        next = (next + 1) & (rpmNames.length - 1);
+        blackhole.consume(new NVR(rpmNames[next]).toString());
+    }
+
+}
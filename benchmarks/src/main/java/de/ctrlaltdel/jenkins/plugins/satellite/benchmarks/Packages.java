@@ -0,0 +1,93 @@
+package de.ctrlaltdel.jenkins.plugins.satellite.benchmarks;
+
+import java.io.UnsupportedEncodingException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import de.ctrlaltdel.jenkins.plugins.satellite.PackageRecord;
+
+/**
+ * Packages, synthetic but repeatable channel contents for the benchmarks
+ * @author ds
+ */
+final class Packages {
+
+    static final long NOW = 1400000000000L;
+    private static final long DAY = 86400000L;
+    private static final String[] NAMES = { "sample-app", "sample-web", "billing-service", "report-batch", "portal-ui", "sample-common" };
+
+    private Packages() {
+    }
+
+    /**
+     * records, count packages of a channel, every 5th a SNAPSHOT, up to a year old
+     */
+    static List<PackageRecord> records(int count, long seed) {
+        Random random = new Random(seed);
+        List<PackageRecord> records = new ArrayList<PackageRecord>(count);
+        for (int i = 0; i < count; i++) {
+            records.add(new PackageRecord(i + 1, NAMES[i % NAMES.length], version(i), release(i), "", "noarch",
+                    NOW - random.nextInt(365) * DAY, checksum(random)));
+        }
+        return records;
+    }
+
+    /**
+     * rpmNames, file names like the rpm push builder sees them
+     */
+    static String[] rpmNames(int count) {
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = NAMES[i % NAMES.length] + '-' + version(i) + '-' + release(i) + ".noarch.rpm";
+        }
+        return names;
+    }
+
+    /**
+     * listAllPackages, the XML-RPC response of <code>channel.software.listAllPackages</code> with count structs
+     */
+    static byte[] listAllPackages(int count, long seed) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat(PackageRecord.DATE_PATTERN);
+        StringBuilder xml = new StringBuilder(count * 640);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><methodResponse><params><param><value><array><data>\n");
+        for (PackageRecord record : records(count, seed)) {
+            xml.append("<value><struct>");
+            member(xml, "id", "i4", String.valueOf(record.getId()));
+            member(xml, "name", "string", record.getName());
+            member(xml, "version", "string", record.getVersion());
+            member(xml, "release", "string", record.getRelease());
+            member(xml, "epoch", "string", " ");
+            member(xml, "arch_label", "string", record.getArch());
+            member(xml, "last_modified_date", "string", dateFormat.format(record.getLastModified()));
+            member(xml, "checksum", "string", record.getChecksum());
+            member(xml, "checksum_type", "string", "md5");
+            xml.append("</struct></value>\n");
+        }
+        xml.append("</data></array></value></param></params></methodResponse>\n");
+        try {
+            return xml.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException x) {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    private static void member(StringBuilder xml, String name, String type, String value) {
+        xml.append("<member><name>").append(name).append("</name><value><").append(type).append('>')
+           .append(value).append("</").append(type).append("></value></member>");
+    }
+
+    private static String version(int i) {
+        return (1 + i / 1000) + "." + (i / 10 % 100);
+    }
+
+    private static String release(int i) {
+        return i % 5 == 0 ? "SNAPSHOT" + (i % 10) : String.valueOf(i % 10);
+    }
+
+    private static String checksum(Random random) {
+        return Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong());
+    }
+
+}
@@ -0,0 +1,56 @@
+package de.ctrlaltdel.jenkins.plugins.satellite.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.ctrlaltdel.jenkins.plugins.satellite.PackageRecord;
+import de.ctrlaltdel.jenkins.plugins.satellite.parameter.StagingParameter;
+
+/**
+ * StagingBenchmark, the package choices of the staging parameter, the target channel holds half of the source packages
+ * @author ds
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StagingBenchmark {
+
+    @Param({ "1000", "10000" })
+    public int packages;
+
+    @Param({ "sample-.*" })
+    public String packagePattern;
+
+    @Param({ "false", "true" })
+    public boolean includeSnapshots;
+
+    private List<PackageRecord> source;
+    private List<PackageRecord> target;
+
+    @Setup
+    public void setUp() {
+        source = Packages.records(packages, 42L);
+        target = source.subList(0, packages / 2);
+    }
+
+    @Benchmark
+    public List<String> filter() {
+        return StagingParameter.filter(source, target, packagePattern, includeSnapshots);
+    }
+
+}
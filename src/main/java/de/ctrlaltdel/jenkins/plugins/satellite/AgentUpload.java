@@ -0,0 +1,123 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * AgentUpload, posts an rpm to <code>/PACKAGE-PUSH</code> from the node holding the workspace.
+ * <p>
+ * Only the URL and the upload headers with the session go to the agent, only the status comes back, the rpm
+ * does not pass through the master. The checksum is computed on the agent by {@link RpmDigest}. The upload limit and
+ * the timeouts of the configuration go along, the agent keeps one client per setting.
+ *
+ * @author ds
+ */
+public class AgentUpload implements FilePath.FileCallable<AgentUpload.Response> {
+
+    private static final long serialVersionUID = 1L;
+
+    /** per JVM, so per agent, by settings */
+    private static final Map<String, CloseableHttpClient> httpClients = new HashMap<String, CloseableHttpClient>();
+
+    private final String url;
+    private final LinkedHashMap<String, String> headers;
+    private final String checksumType;
+    private final int maxUploads;
+    private final int connectTimeout;
+    private final int socketTimeout;
+    private final int connectionRequestTimeout;
+
+    public AgentUpload(String url, Map<String, String> headers, String checksumType, PluginConfiguration configuration) {
+        this.url = url;
+        this.headers = new LinkedHashMap<String, String>(headers);
+        this.checksumType = checksumType;
+        this.maxUploads = configuration.getMaxConcurrentUploads();
+        this.connectTimeout = configuration.getConnectTimeout();
+        this.socketTimeout = configuration.getSocketTimeout();
+        this.connectionRequestTimeout = configuration.getConnectionRequestTimeout();
+    }
+
+    public Response invoke(File file, VirtualChannel channel) throws IOException, InterruptedException {
+        HttpPost httpPost = new HttpPost(url);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            httpPost.setHeader(header.getKey(), header.getValue());
+        }
+        httpPost.setHeader("X-RHN-Upload-File-Checksum", new RpmDigest(checksumType).invoke(file, channel));
+        httpPost.setEntity(new FileEntity(file, ContentType.create("application/x-rpm")));
+
+        HttpResponse response = httpClient().execute(httpPost);
+        try {
+            int status = response.getStatusLine().getStatusCode();
+            return new Response(status, status == 200 ? null : SatelliteConnection.describe(response));
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
+        }
+    }
+
+    /**
+     * httpClient, the client of these settings, a client of earlier settings stays open for the uploads still using it
+     */
+    private CloseableHttpClient httpClient() {
+        String settings = maxUploads + "/" + connectTimeout + "/" + socketTimeout + "/" + connectionRequestTimeout;
+        synchronized (httpClients) {
+            CloseableHttpClient httpClient = httpClients.get(settings);
+            if (httpClient == null) {
+                RequestConfig requestConfig = RequestConfig.custom()
+                        .setConnectTimeout(connectTimeout * 1000)
+                        .setSocketTimeout(socketTimeout * 1000)
+                        .setConnectionRequestTimeout(connectionRequestTimeout * 1000)
+                        .build();
+                httpClient = HttpClients.custom()
+                        .setSSLSocketFactory(HttpConnectionPool.trustAllSocketFactory())
+                        .setMaxConnPerRoute(maxUploads)
+                        .setMaxConnTotal(maxUploads)
+                        .setDefaultRequestConfig(requestConfig)
+                        .disableContentCompression()
+                        .disableCookieManagement()
+                        .build();
+                httpClients.put(settings, httpClient);
+            }
+            return httpClient;
+        }
+    }
+
+    /**
+     * Response, the status of the upload and the error reported by Satellite
+     */
+    public static class Response implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+        private final String failure;
+
+        Response(int status, String failure) {
+            this.status = status;
+            this.failure = failure;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getFailure() {
+            return failure;
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import hudson.FilePath;
+import hudson.model.BuildListener;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import jenkins.model.Jenkins;
+
+/**
+ * AsyncSatelliteConnection, runs Satellite operations on the bounded executor of the {@link PluginConfiguration}.
+ * <p>
+ * Every operation borrows its own pooled session, so independent operations run concurrently:
+ * <pre>
+ * AsyncSatelliteConnection async = AsyncSatelliteConnection.create();
+ * Future&lt;List&lt;PackageRecord&gt;&gt; source = async.listPackages("dev");
+ * Future&lt;List&lt;PackageRecord&gt;&gt; target = async.listPackages("prod");
+ * diff(AsyncSatelliteConnection.join(source), AsyncSatelliteConnection.join(target));
+ * </pre>
+ *
+ * @author ds
+ */
+public class AsyncSatelliteConnection {
+
+    private final PluginConfiguration configuration;
+    private BuildListener listener;
+
+    private AsyncSatelliteConnection(PluginConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * from
+     */
+    public static AsyncSatelliteConnection from(PluginConfiguration configuration) {
+        return new AsyncSatelliteConnection(configuration);
+    }
+
+    public static AsyncSatelliteConnection create() {
+        PluginConfiguration configuration = (PluginConfiguration) Jenkins.getInstance().getDescriptorOrDie(PluginConfiguration.class);
+        return new AsyncSatelliteConnection(configuration);
+    }
+
+    public AsyncSatelliteConnection logger(BuildListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * listPackages
+     */
+    public Future<List<PackageRecord>> listPackages(final String channel) {
+        return submit(new Operation<List<PackageRecord>>() {
+            public List<PackageRecord> execute(SatelliteConnection connection) {
+                return connection.listPackages(channel);
+            }
+        });
+    }
+
+    /**
+     * addPackage
+     */
+    public Future<Boolean> addPackage(final String channel, final Integer id) {
+        return submit(new Operation<Boolean>() {
+            public Boolean execute(SatelliteConnection connection) {
+                return connection.addPackage(channel, id);
+            }
+        });
+    }
+
+    /**
+     * updateConfig
+     */
+    public Future<Boolean> updateConfig(final String configChannel, final String configPath, final String contents) {
+        return submit(new Operation<Boolean>() {
+            public Boolean execute(SatelliteConnection connection) {
+                return connection.updateConfig(configChannel, configPath, contents);
+            }
+        });
+    }
+
+    /**
+     * remoteScript
+     */
+    public Future<Void> remoteScript(final String group, final String user, final String script) {
+        return submit(new Operation<Void>() {
+            public Void execute(SatelliteConnection connection) {
+                connection.remoteScript(group, user, script);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * push
+     */
+    public Future<NVR> push(final FilePath filePath, final String channel) {
+        return submit(new Operation<NVR>() {
+            public NVR execute(SatelliteConnection connection) {
+                return connection.push(filePath, channel);
+            }
+        });
+    }
+
+    /**
+     * submit an arbitrary operation, it runs with its own logged in connection
+     */
+    public <T> Future<T> submit(Operation<T> operation) {
+        return configuration.getExecutor().submit(callable(operation));
+    }
+
+    /**
+     * callable, the operation with its own logged in connection, for callers managing the execution themselves
+     */
+    public <T> Callable<T> callable(final Operation<T> operation) {
+        return new Callable<T>() {
+            public T call() throws Exception {
+                SatelliteConnection connection = SatelliteConnection.from(configuration);
+                if (listener != null) {
+                    connection.logger(listener);
+                }
+                connection.login();
+                try {
+                    return operation.execute(connection);
+                } finally {
+                    connection.logout();
+                }
+            }
+        };
+    }
+
+    /**
+     * join, waits for the result and rethrows failures unchecked
+     */
+    public static <T> T join(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException x) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(x);
+        } catch (ExecutionException x) {
+            if (x.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) x.getCause();
+            }
+            throw new IllegalStateException(x.getCause());
+        }
+    }
+
+    /**
+     * Operation
+     */
+    public interface Operation<T> {
+        T execute(SatelliteConnection connection);
+    }
+
+}
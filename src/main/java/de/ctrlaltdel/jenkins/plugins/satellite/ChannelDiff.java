@@ -0,0 +1,106 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ChannelDiff, compares the packages of a source and a target channel in linear time.
+ * <p>
+ * Packages are matched by name-version-release, like the staging parameter shows them. The lists keep the order
+ * of their channel:
+ * <ul>
+ * <li>missing, in the source but not in the target</li>
+ * <li>added, in the target but not in the source</li>
+ * <li>newer, missing packages newer than every package of the same name in the target</li>
+ * </ul>
+ *
+ * @author ds
+ */
+public final class ChannelDiff {
+
+    private final List<PackageRecord> missing;
+    private final List<PackageRecord> added;
+    private final List<PackageRecord> newer;
+
+    private ChannelDiff(List<PackageRecord> missing, List<PackageRecord> added, List<PackageRecord> newer) {
+        this.missing = Collections.unmodifiableList(missing);
+        this.added = Collections.unmodifiableList(added);
+        this.newer = Collections.unmodifiableList(newer);
+    }
+
+    /**
+     * between, the diff of the source against the target channel
+     */
+    public static ChannelDiff between(Collection<PackageRecord> source, Collection<PackageRecord> target) {
+        Set<String> targetNames = new HashSet<String>(target.size() * 4 / 3 + 1);
+        Map<String, PackageRecord> newestInTarget = new HashMap<String, PackageRecord>();
+        for (PackageRecord record : target) {
+            targetNames.add(record.getPackageName());
+            PackageRecord newest = newestInTarget.get(record.getName());
+            if (newest == null || compare(record, newest) > 0) {
+                newestInTarget.put(record.getName(), record);
+            }
+        }
+
+        Set<String> sourceNames = new HashSet<String>(source.size() * 4 / 3 + 1);
+        List<PackageRecord> missing = new ArrayList<PackageRecord>();
+        List<PackageRecord> newer = new ArrayList<PackageRecord>();
+        for (PackageRecord record : source) {
+            String packageName = record.getPackageName();
+            sourceNames.add(packageName);
+            if (targetNames.contains(packageName)) {
+                continue;
+            }
+            missing.add(record);
+            PackageRecord newest = newestInTarget.get(record.getName());
+            if (newest != null && compare(record, newest) > 0) {
+                newer.add(record);
+            }
+        }
+
+        List<PackageRecord> added = new ArrayList<PackageRecord>();
+        for (PackageRecord record : target) {
+            if (!sourceNames.contains(record.getPackageName())) {
+                added.add(record);
+            }
+        }
+        return new ChannelDiff(missing, added, newer);
+    }
+
+    /**
+     * compare, epoch, version and release of two packages with the rules of rpm
+     */
+    public static int compare(PackageRecord a, PackageRecord b) {
+        int result = NVR.rpmvercmp(epoch(a), epoch(b));
+        if (result == 0) {
+            result = NVR.rpmvercmp(a.getVersion(), b.getVersion());
+        }
+        if (result == 0) {
+            result = NVR.rpmvercmp(a.getRelease(), b.getRelease());
+        }
+        return result;
+    }
+
+    private static String epoch(PackageRecord record) {
+        return record.getEpoch().length() == 0 ? "0" : record.getEpoch();
+    }
+
+    public List<PackageRecord> getMissing() {
+        return missing;
+    }
+
+    public List<PackageRecord> getAdded() {
+        return added;
+    }
+
+    public List<PackageRecord> getNewer() {
+        return newer;
+    }
+
+}
@@ -0,0 +1,290 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ChannelIndex, incrementally synchronized package lists of the software channels.
+ * <p>
+ * The first access of a channel reads the full list, later accesses only ask Satellite for the packages added
+ * since the last sync (<code>channel.software.listAllPackages</code> with a start date) and merge them by id.
+ * Satellite does not report removals in a delta, so removals of this plugin are applied directly and the full
+ * list is read again by {@link SatelliteMaintenance} after the reconcile interval, never on the request path.
+ * <p>
+ * With a {@link ChannelStore} the lists survive a restart: a channel is restored from disk on its first access
+ * and brought up to date with a delta.
+ *
+ * @author ds
+ */
+public class ChannelIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(ChannelIndex.class.getName());
+
+    /** a delta starts a bit before the last sync, for clock skew between Jenkins and Satellite */
+    static final long OVERLAP_MILLIS = 5 * 60 * 1000L;
+
+    private final Map<String, Entry> channels = new HashMap<String, Entry>();
+    private final long reconcileMillis;
+    private final ChannelStore store;
+
+    public ChannelIndex(long reconcileMillis) {
+        this(reconcileMillis, null);
+    }
+
+    /**
+     * ChannelIndex, persisted in the store if not null
+     */
+    public ChannelIndex(long reconcileMillis, ChannelStore store) {
+        this.reconcileMillis = reconcileMillis;
+        this.store = store;
+    }
+
+    /**
+     * packages, the synchronized package list of the channel
+     */
+    public List<PackageRecord> packages(SatelliteConnection connection, String channel) {
+        Entry entry = entry(channel);
+        synchronized (entry) {
+            restore(channel, entry);
+            sync(connection, channel, entry, false);
+            entry.accessed = System.currentTimeMillis();
+            return new ArrayList<PackageRecord>(entry.packages.values());
+        }
+    }
+
+    /**
+     * removed, packages this plugin removed from the channel
+     */
+    public void removed(String channel, Collection<Integer> ids) {
+        Entry entry;
+        synchronized (this) {
+            entry = channels.get(channel);
+        }
+        if (entry == null) {
+            if (store != null) {
+                // not restored yet, a stale snapshot is not worth keeping
+                store.delete(channel);
+            }
+            return;
+        }
+        synchronized (entry) {
+            entry.revision++;
+            for (Integer id : ids) {
+                entry.packages.remove(id);
+            }
+            if (store != null && entry.synced != 0) {
+                try {
+                    if (store.appendRemoved(channel, ids, entry.synced)) {
+                        store.write(channel, entry.packages, entry.synced, entry.reconciled);
+                    }
+                } catch (IOException x) {
+                    unpersist(channel, x);
+                }
+            }
+        }
+    }
+
+    /**
+     * invalidate, the next access reads the full list
+     */
+    public synchronized void invalidate(String channel) {
+        channels.remove(channel);
+        if (store != null) {
+            store.delete(channel);
+        }
+    }
+
+    /**
+     * clear, the lists in memory, the store is kept
+     */
+    public synchronized void clear() {
+        channels.clear();
+    }
+
+    public synchronized int size() {
+        return channels.size();
+    }
+
+    /**
+     * isReconcileDue, at least one channel is due for reconcile
+     */
+    public boolean isReconcileDue() {
+        long now = System.currentTimeMillis();
+        Map<String, Entry> snapshot;
+        synchronized (this) {
+            snapshot = new HashMap<String, Entry>(channels);
+        }
+        for (Entry entry : snapshot.values()) {
+            synchronized (entry) {
+                if (reconcileMillis <= now - entry.reconciled) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * reconcile, reads the full list of the channels used since their last reconcile once the interval is over,
+     * the other channels are dropped from memory. The list is read without holding the entry, builds keep using
+     * the current list meanwhile. It is only swapped in if the entry did not change in the meantime, otherwise
+     * the channel stays due for the next run.
+     */
+    public void reconcile(SatelliteConnection connection) {
+        long now = System.currentTimeMillis();
+        Map<String, Entry> snapshot;
+        synchronized (this) {
+            snapshot = new HashMap<String, Entry>(channels);
+        }
+        for (Map.Entry<String, Entry> channel : snapshot.entrySet()) {
+            Entry entry = channel.getValue();
+            long revision;
+            synchronized (entry) {
+                if (now - entry.reconciled < reconcileMillis) {
+                    continue;
+                }
+                if (entry.accessed < entry.reconciled || entry.synced == 0) {
+                    synchronized (this) {
+                        channels.remove(channel.getKey());
+                    }
+                    continue;
+                }
+                revision = entry.revision;
+            }
+            long start = System.currentTimeMillis();
+            Map<Integer, PackageRecord> packages = fetch(connection, channel.getKey());
+            synchronized (entry) {
+                if (entry.revision != revision || !isCurrent(channel.getKey(), entry)) {
+                    continue;
+                }
+                replace(channel.getKey(), entry, packages, start);
+            }
+        }
+    }
+
+    private synchronized boolean isCurrent(String channel, Entry entry) {
+        return channels.get(channel) == entry;
+    }
+
+    /**
+     * restore, the list of the store on the first access of the channel
+     */
+    private void restore(String channel, Entry entry) {
+        if (entry.restored || store == null) {
+            return;
+        }
+        entry.restored = true;
+        ChannelStore.Snapshot snapshot = store.load(channel);
+        if (snapshot != null) {
+            entry.packages = snapshot.packages;
+            entry.synced = snapshot.synced;
+            entry.reconciled = snapshot.reconciled;
+        }
+    }
+
+    /**
+     * sync, the full list for a new channel or on reconcile, otherwise a delta since the last sync
+     */
+    private void sync(SatelliteConnection connection, String channel, Entry entry, boolean full) {
+        long start = System.currentTimeMillis();
+        if (full || entry.synced == 0) {
+            replace(channel, entry, fetch(connection, channel), start);
+            return;
+        }
+        final Map<Integer, PackageRecord> packages = entry.packages;
+        final List<PackageRecord> changed = new ArrayList<PackageRecord>();
+        connection.streamPackages(channel, new Date(entry.synced - OVERLAP_MILLIS), new PackageRecord.Handler() {
+            public void handle(PackageRecord record) {
+                PackageRecord previous = packages.put(record.getId(), record);
+                if (previous == null || previous.getLastModified() != record.getLastModified()) {
+                    changed.add(record);
+                }
+            }
+        });
+        entry.synced = start;
+        if (!changed.isEmpty()) {
+            entry.revision++;
+            connection.info("channel '" + channel + "': " + changed.size() + " packages added or changed since the last sync");
+            persist(channel, entry, changed);
+        }
+    }
+
+    /**
+     * fetch, the full list of the channel
+     */
+    private Map<Integer, PackageRecord> fetch(SatelliteConnection connection, String channel) {
+        final Map<Integer, PackageRecord> packages = new LinkedHashMap<Integer, PackageRecord>();
+        connection.streamPackages(channel, null, new PackageRecord.Handler() {
+            public void handle(PackageRecord record) {
+                packages.put(record.getId(), record);
+            }
+        });
+        return packages;
+    }
+
+    /**
+     * replace, the list of the entry by a full list read at <code>start</code>, the caller holds the lock of the entry
+     */
+    private void replace(String channel, Entry entry, Map<Integer, PackageRecord> packages, long start) {
+        entry.packages = packages;
+        entry.synced = start;
+        entry.reconciled = start;
+        entry.revision++;
+        persist(channel, entry, null);
+    }
+
+    /**
+     * persist, a new snapshot or the changed packages appended to the log, the caller holds the lock of the entry
+     */
+    private void persist(String channel, Entry entry, List<PackageRecord> changed) {
+        if (store == null) {
+            return;
+        }
+        try {
+            if (changed == null || store.appendAdded(channel, changed, entry.synced)) {
+                store.write(channel, entry.packages, entry.synced, entry.reconciled);
+            }
+        } catch (IOException x) {
+            unpersist(channel, x);
+        }
+    }
+
+    /**
+     * unpersist, the store is dropped rather than left behind inconsistent
+     */
+    private void unpersist(String channel, IOException x) {
+        LOGGER.log(Level.WARNING, "failed to store the package list of channel '" + channel + "'", x);
+        store.delete(channel);
+    }
+
+    private synchronized Entry entry(String channel) {
+        Entry entry = channels.get(channel);
+        if (entry == null) {
+            entry = new Entry();
+            channels.put(channel, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Entry, guarded by itself
+     */
+    private static class Entry {
+        private Map<Integer, PackageRecord> packages = new LinkedHashMap<Integer, PackageRecord>();
+        private long synced;
+        private long reconciled;
+        private long accessed;
+        private boolean restored;
+        /** counts the changes of the list, a reconcile only swaps in its list if nothing changed meanwhile */
+        private long revision;
+    }
+
+}
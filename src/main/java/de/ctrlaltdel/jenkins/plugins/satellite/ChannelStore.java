@@ -0,0 +1,470 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * ChannelStore, keeps the package lists of the {@link ChannelIndex} on disk, so they survive a restart.
+ * <p>
+ * Each channel has a snapshot written after a full sync and an append-only log of the deltas and removals since.
+ * The snapshot is read memory-mapped and holds every string once:
+ * <pre>
+ * int magic, int version, string source, long synced, long reconciled,
+ * int strings, string*, int records, (int id, int name, version, release, epoch, arch, checksum, long lastModified)*,
+ * long crc32
+ * </pre>
+ * A log frame is <code>int length, byte type, long base, long synced, int count, entries, int crc32</code>, the base
+ * is the synced time of the snapshot the frame applies to. A new snapshot is renamed into place before the old log is
+ * deleted, frames of an older snapshot left over by a crash in between are skipped. A torn or corrupt frame ends the
+ * replay and is cut off, a corrupt snapshot is dropped together with its log.
+ *
+ * @author ds
+ */
+public class ChannelStore {
+
+    private static final Logger LOGGER = Logger.getLogger(ChannelStore.class.getName());
+
+    static final int MAGIC = 0x53415449;
+    static final int VERSION = 2;
+    static final byte ADDED = 1;
+    static final byte REMOVED = 2;
+    /** the log is folded into a new snapshot once it is larger than this and the snapshot */
+    static final long MIN_COMPACT_BYTES = 256 * 1024L;
+
+    private final File directory;
+    private final String source;
+
+    /**
+     * ChannelStore, the source (the Satellite url) must match for a snapshot to be used
+     */
+    public ChannelStore(File directory, String source) {
+        this.directory = directory;
+        this.source = source == null ? "" : source;
+    }
+
+    /**
+     * Snapshot, a restored package list
+     */
+    public static class Snapshot {
+        final Map<Integer, PackageRecord> packages;
+        final long synced;
+        final long reconciled;
+
+        Snapshot(Map<Integer, PackageRecord> packages, long synced, long reconciled) {
+            this.packages = packages;
+            this.synced = synced;
+            this.reconciled = reconciled;
+        }
+    }
+
+    /**
+     * load, the snapshot with the log replayed, null if there is none or it is unusable
+     */
+    public Snapshot load(String channel) {
+        File snapshotFile = snapshotFile(channel);
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+        Snapshot snapshot;
+        try {
+            snapshot = readSnapshot(snapshotFile);
+        } catch (IOException x) {
+            snapshot = null;
+        } catch (RuntimeException x) {
+            // buffer underflow, bad string index
+            snapshot = null;
+        }
+        if (snapshot == null) {
+            LOGGER.warning("dropping unusable package snapshot " + snapshotFile);
+            delete(channel);
+            return null;
+        }
+        try {
+            return replay(channel, snapshot);
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "failed to read package log of channel '" + channel + "'", x);
+            return snapshot;
+        }
+    }
+
+    /**
+     * write, a new snapshot after a full sync, the log starts empty
+     */
+    public void write(String channel, Map<Integer, PackageRecord> packages, long synced, long reconciled) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+        for (PackageRecord record : packages.values()) {
+            for (String value : strings(record)) {
+                if (value != null && !strings.containsKey(value)) {
+                    strings.put(value, strings.size());
+                }
+            }
+        }
+
+        File tmp = new File(directory, fileName(channel) + ".tmp");
+        FileOutputStream file = new FileOutputStream(tmp);
+        try {
+            BufferedOutputStream buffered = new BufferedOutputStream(file, 65536);
+            CheckedOutputStream checked = new CheckedOutputStream(buffered, new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, source);
+            out.writeLong(synced);
+            out.writeLong(reconciled);
+            out.writeInt(strings.size());
+            for (String value : strings.keySet()) {
+                writeString(out, value);
+            }
+            out.writeInt(packages.size());
+            for (PackageRecord record : packages.values()) {
+                out.writeInt(record.getId());
+                for (String value : strings(record)) {
+                    out.writeInt(value == null ? -1 : strings.get(value));
+                }
+                out.writeLong(record.getLastModified());
+            }
+            out.flush();
+            new DataOutputStream(buffered).writeLong(checked.getChecksum().getValue());
+            buffered.flush();
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        File target = snapshotFile(channel);
+        if (!tmp.renameTo(target)) {
+            target.delete();
+            if (!tmp.renameTo(target)) {
+                tmp.delete();
+                throw new IOException("cannot rename " + tmp + " to " + target);
+            }
+        }
+        // the frames of the old log carry the synced time of the old snapshot and are skipped if this fails
+        logFile(channel).delete();
+    }
+
+    /**
+     * appendAdded, packages added or changed by a delta, returns true if the log should be compacted
+     */
+    public boolean appendAdded(String channel, Collection<PackageRecord> records, long synced) throws IOException {
+        FrameOutputStream frame = new FrameOutputStream(ADDED, synced, records.size());
+        for (PackageRecord record : records) {
+            frame.data.writeInt(record.getId());
+            for (String value : strings(record)) {
+                writeString(frame.data, value);
+            }
+            frame.data.writeLong(record.getLastModified());
+        }
+        return append(channel, frame);
+    }
+
+    /**
+     * appendRemoved, packages removed from the channel, returns true if the log should be compacted
+     */
+    public boolean appendRemoved(String channel, Collection<Integer> ids, long synced) throws IOException {
+        FrameOutputStream frame = new FrameOutputStream(REMOVED, synced, ids.size());
+        for (Integer id : ids) {
+            frame.data.writeInt(id);
+        }
+        return append(channel, frame);
+    }
+
+    /**
+     * delete snapshot and log of the channel
+     */
+    public void delete(String channel) {
+        snapshotFile(channel).delete();
+        logFile(channel).delete();
+    }
+
+    private boolean append(String channel, FrameOutputStream frame) throws IOException {
+        File snapshotFile = snapshotFile(channel);
+        if (!snapshotFile.isFile()) {
+            // nothing to apply the frame to
+            return false;
+        }
+        long base = readSynced(snapshotFile);
+        if (base < 0) {
+            // unusable, dropped on the next load
+            return false;
+        }
+        File logFile = logFile(channel);
+        FileOutputStream out = new FileOutputStream(logFile, true);
+        try {
+            frame.writeTo(out, base);
+            out.flush();
+        } finally {
+            out.close();
+        }
+        long logLength = logFile.length();
+        return MIN_COMPACT_BYTES < logLength && snapshotFile.length() < logLength;
+    }
+
+    /**
+     * readSynced, the synced time from the header of the snapshot, -1 if it is not a snapshot of this source
+     */
+    private long readSynced(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1024));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return -1;
+            }
+            int length = in.readInt();
+            if (length < 0 || 65536 < length) {
+                return -1;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return source.equals(new String(bytes, "UTF-8")) ? in.readLong() : -1;
+        } catch (EOFException x) {
+            return -1;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * readSnapshot, memory-mapped, the checksum is verified before the records are decoded
+     */
+    private Snapshot readSnapshot(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel fileChannel = raf.getChannel();
+            long size = fileChannel.size();
+            if (size < 16 || Integer.MAX_VALUE < size) {
+                return null;
+            }
+            MappedByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int length = (int) size - 8;
+            if (crc(buffer, length) != buffer.getLong(length)) {
+                return null;
+            }
+            buffer.limit(length);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || !source.equals(readString(buffer))) {
+                return null;
+            }
+            long synced = buffer.getLong();
+            long reconciled = buffer.getLong();
+            String[] strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readString(buffer);
+            }
+            int count = buffer.getInt();
+            Map<Integer, PackageRecord> packages = new LinkedHashMap<Integer, PackageRecord>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                int id = buffer.getInt();
+                String name = string(strings, buffer.getInt());
+                String version = string(strings, buffer.getInt());
+                String release = string(strings, buffer.getInt());
+                String epoch = string(strings, buffer.getInt());
+                String arch = string(strings, buffer.getInt());
+                String checksum = string(strings, buffer.getInt());
+                packages.put(id, new PackageRecord(id, name, version, release, epoch, arch, buffer.getLong(), checksum));
+            }
+            return new Snapshot(packages, synced, reconciled);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * replay, applies the frames of this snapshot to it, a broken frame and everything after it is cut off
+     */
+    private Snapshot replay(String channel, Snapshot snapshot) throws IOException {
+        File logFile = logFile(channel);
+        if (!logFile.isFile()) {
+            return snapshot;
+        }
+        Map<Integer, PackageRecord> packages = snapshot.packages;
+        long synced = snapshot.synced;
+        long valid = 0;
+        int stale = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile), 65536));
+        try {
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    if (length < 21 || logFile.length() - valid < length) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != in.readInt()) {
+                        break;
+                    }
+                } catch (EOFException x) {
+                    break;
+                }
+                valid += 4 + payload.length + 4;
+                ByteBuffer frame = ByteBuffer.wrap(payload);
+                byte type = frame.get();
+                if (frame.getLong() != snapshot.synced) {
+                    stale++;
+                    continue;
+                }
+                long frameSynced = frame.getLong();
+                int count = frame.getInt();
+                for (int i = 0; i < count; i++) {
+                    if (type == ADDED) {
+                        int id = frame.getInt();
+                        String name = readString(frame);
+                        String version = readString(frame);
+                        String release = readString(frame);
+                        String epoch = readString(frame);
+                        String arch = readString(frame);
+                        String checksum = readString(frame);
+                        packages.put(id, new PackageRecord(id, name, version, release, epoch, arch, frame.getLong(), checksum));
+                    } else if (type == REMOVED) {
+                        packages.remove(frame.getInt());
+                    }
+                }
+                synced = Math.max(synced, frameSynced);
+            }
+        } finally {
+            in.close();
+        }
+        if (0 < stale) {
+            LOGGER.warning("skipped " + stale + " frames of an older snapshot in the package log of channel '" + channel + "'");
+        }
+        if (valid < logFile.length()) {
+            LOGGER.warning("cutting off a broken frame of the package log of channel '" + channel + "' at " + valid);
+            RandomAccessFile raf = new RandomAccessFile(logFile, "rw");
+            try {
+                raf.setLength(valid);
+            } finally {
+                raf.close();
+            }
+        }
+        return new Snapshot(packages, synced, snapshot.reconciled);
+    }
+
+    private static long crc(ByteBuffer buffer, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(0);
+        byte[] chunk = new byte[65536];
+        for (int remaining = length; 0 < remaining;) {
+            int read = Math.min(chunk.length, remaining);
+            slice.get(chunk, 0, read);
+            crc.update(chunk, 0, read);
+            remaining -= read;
+        }
+        return crc.getValue();
+    }
+
+    private static String[] strings(PackageRecord record) {
+        return new String[] { record.getName(), record.getVersion(), record.getRelease(), record.getEpoch(), record.getArch(), record.getChecksum() };
+    }
+
+    private static String string(String[] strings, int index) {
+        return index < 0 ? null : strings[index];
+    }
+
+    /**
+     * writeString, length and UTF-8 bytes, -1 for null
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) throws UnsupportedEncodingException {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private File snapshotFile(String channel) {
+        return new File(directory, fileName(channel) + ".snapshot");
+    }
+
+    private File logFile(String channel) {
+        return new File(directory, fileName(channel) + ".log");
+    }
+
+    private static String fileName(String channel) {
+        try {
+            return URLEncoder.encode(channel, "UTF-8");
+        } catch (UnsupportedEncodingException x) {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    /**
+     * FrameOutputStream, collects the entries of a log frame
+     */
+    private static class FrameOutputStream {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream data = new DataOutputStream(bytes);
+        private final byte type;
+        private final long synced;
+        private final int count;
+
+        FrameOutputStream(byte type, long synced, int count) {
+            this.type = type;
+            this.synced = synced;
+            this.count = count;
+        }
+
+        /**
+         * writeTo, the whole frame in one write, tagged with the synced time of the snapshot
+         */
+        void writeTo(OutputStream out, long base) throws IOException {
+            data.flush();
+            ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(21 + bytes.size());
+            DataOutputStream payloadData = new DataOutputStream(payloadBytes);
+            payloadData.writeByte(type);
+            payloadData.writeLong(base);
+            payloadData.writeLong(synced);
+            payloadData.writeInt(count);
+            bytes.writeTo(payloadData);
+            payloadData.flush();
+            byte[] payload = payloadBytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.length + 8);
+            DataOutputStream framed = new DataOutputStream(frame);
+            framed.writeInt(payload.length);
+            framed.write(payload);
+            framed.writeInt((int) crc.getValue());
+            out.write(frame.toByteArray());
+        }
+    }
+
+}
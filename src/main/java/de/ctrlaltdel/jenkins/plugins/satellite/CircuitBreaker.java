@@ -0,0 +1,100 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+/**
+ * CircuitBreaker shared by all builds talking to Satellite.
+ * <p>
+ * After {@link #FAILURE_THRESHOLD} consecutive transient failures the circuit opens and calls fail fast.
+ * Once {@link #OPEN_MILLIS} have passed a single probe call is let through (half-open); its outcome
+ * closes the circuit again or keeps it open for another period.
+ *
+ * @author ds
+ */
+public class CircuitBreaker {
+
+    static final int FAILURE_THRESHOLD = 5;
+    static final long OPEN_MILLIS = 30 * 1000L;
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean probing;
+
+    public CircuitBreaker() {
+        this(FAILURE_THRESHOLD, OPEN_MILLIS);
+    }
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * tryAcquire, returns false if the call has to fail fast
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            if (System.currentTimeMillis() - openedAt < openMillis) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probing = true;
+            return true;
+        case HALF_OPEN:
+        default:
+            if (probing) {
+                return false;
+            }
+            probing = true;
+            return true;
+        }
+    }
+
+    /**
+     * onSuccess, Satellite answered
+     */
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        probing = false;
+    }
+
+    /**
+     * onFailure, Satellite did not answer or answered with a server error
+     */
+    public synchronized void onFailure() {
+        probing = false;
+        failures++;
+        if (state == State.HALF_OPEN || failureThreshold <= failures) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * release an acquired call which ended without telling anything about Satellite's health
+     */
+    public synchronized void release() {
+        probing = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * getRetryIn, milliseconds until the next probe is let through
+     */
+    public synchronized long getRetryIn() {
+        return state == State.OPEN ? Math.max(0, openMillis - (System.currentTimeMillis() - openedAt)) : 0;
+    }
+
+}
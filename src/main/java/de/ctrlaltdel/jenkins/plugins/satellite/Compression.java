@@ -0,0 +1,208 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * Compression, gzip content-encoding negotiation for the XML-RPC requests and responses.
+ * <p>
+ * Responses are requested with <code>Accept-Encoding: gzip</code>, a server not supporting it just answers
+ * uncompressed. Compressed requests are optional, if the server answers one with 415 request compression stays
+ * off and read-only methods are sent again uncompressed. The byte counters are published with the
+ * {@link SatelliteMetrics}.
+ *
+ * @author ds
+ */
+public class Compression {
+
+    private final boolean gzipResponses;
+    private volatile boolean gzipRequests;
+
+    private final SatelliteMetrics.CompressionMetrics metrics;
+
+    Compression(boolean gzipResponses, boolean gzipRequests, SatelliteMetrics.CompressionMetrics metrics) {
+        this.gzipResponses = gzipResponses;
+        this.gzipRequests = gzipRequests;
+        this.metrics = metrics;
+    }
+
+    /**
+     * prepare the request, returns true if the request entity is compressed,
+     * the bytes sent on the wire are added to <code>sent</code>
+     */
+    public boolean prepare(HttpPost httpPost, HttpEntity entity, AtomicLong sent) {
+        if (gzipResponses) {
+            httpPost.setHeader("Accept-Encoding", "gzip");
+        }
+        boolean compressed = gzipRequests;
+        httpPost.setEntity(new RequestEntity(entity, compressed, sent));
+        return compressed;
+    }
+
+    /**
+     * isRejected, the server does not accept compressed requests (415 Unsupported Media Type),
+     * request compression is turned off for the following requests
+     */
+    public boolean isRejected(HttpResponse response) {
+        if (response.getStatusLine().getStatusCode() != 415) {
+            return false;
+        }
+        gzipRequests = false;
+        return true;
+    }
+
+    /**
+     * fallback, prepares the request again uncompressed, only for methods which may be sent twice
+     */
+    public void fallback(HttpPost httpPost, HttpEntity entity, AtomicLong sent) {
+        httpPost.setEntity(new RequestEntity(entity, false, sent));
+    }
+
+    /**
+     * decode the response body, uncompressing it if the server sent gzip,
+     * the bytes received on the wire are added to <code>received</code>
+     */
+    public InputStream decode(HttpResponse response, AtomicLong received) throws IOException {
+        InputStream in = new CountingInputStream(response.getEntity().getContent(), received);
+        in = new CountingInputStream(in, metrics.responseWireBytes);
+        Header encoding = response.getFirstHeader("Content-Encoding");
+        if (encoding != null && encoding.getValue().toLowerCase().contains("gzip")) {
+            in = new CountingInputStream(new GZIPInputStream(in), metrics.responseBytes);
+        } else {
+            in = new CountingInputStream(in, metrics.responseBytes);
+        }
+        return in;
+    }
+
+    public boolean isGzipResponses() {
+        return gzipResponses;
+    }
+
+    public boolean isGzipRequests() {
+        return gzipRequests;
+    }
+
+    public SatelliteMetrics.CompressionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * RequestEntity, counts and optionally compresses the wrapped request entity
+     */
+    private class RequestEntity extends HttpEntityWrapper {
+        private final boolean compressed;
+        private final AtomicLong sent;
+
+        RequestEntity(HttpEntity entity, boolean compressed, AtomicLong sent) {
+            super(entity);
+            this.compressed = compressed;
+            this.sent = sent;
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return compressed ? new BasicHeader("Content-Encoding", "gzip") : super.getContentEncoding();
+        }
+
+        @Override
+        public long getContentLength() {
+            return compressed ? -1 : super.getContentLength();
+        }
+
+        @Override
+        public boolean isChunked() {
+            return compressed || super.isChunked();
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            OutputStream wire = new CountingOutputStream(new CountingOutputStream(out, sent), metrics.requestWireBytes);
+            if (compressed) {
+                GZIPOutputStream gzip = new GZIPOutputStream(wire);
+                wrappedEntity.writeTo(new CountingOutputStream(gzip, metrics.requestBytes));
+                gzip.finish();
+            } else {
+                wrappedEntity.writeTo(new CountingOutputStream(wire, metrics.requestBytes));
+            }
+            wire.flush();
+        }
+    }
+
+    /**
+     * CountingInputStream
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong counter;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                counter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (0 < read) {
+                counter.addAndGet(read);
+            }
+            return read;
+        }
+    }
+
+    /**
+     * CountingOutputStream, does not close the underlying stream
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final AtomicLong counter;
+
+        CountingOutputStream(OutputStream out, AtomicLong counter) {
+            super(out);
+            this.counter = counter;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            counter.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            counter.addAndGet(len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+}
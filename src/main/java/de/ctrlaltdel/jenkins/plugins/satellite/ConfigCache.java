@@ -0,0 +1,70 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ConfigCache, the latest revision of the config files read or updated by this plugin.
+ * <p>
+ * A revision is keyed by channel and path and is valid as long as the <code>last_modified</code> of the file in
+ * <code>configchannel.listFiles</code> is unchanged, so the contents are only transferred again after a change.
+ *
+ * @author ds
+ */
+public class ConfigCache {
+
+    private final Map<String, Entry> files = new HashMap<String, Entry>();
+
+    /**
+     * get, a copy of the cached revision, null if there is none or the file was modified since
+     */
+    public synchronized Map<String, Object> get(String configChannel, String configPath, Date modified) {
+        Entry entry = files.get(key(configChannel, configPath));
+        if (entry == null || modified == null || !modified.equals(entry.modified)) {
+            return null;
+        }
+        return new HashMap<String, Object>(entry.fileInfo);
+    }
+
+    /**
+     * put, the revision as returned by <code>configchannel.lookupFileInfo</code> or <code>createOrUpdatePath</code>
+     */
+    public synchronized void put(String configChannel, String configPath, Date modified, Map<String, Object> fileInfo) {
+        if (modified == null || !(fileInfo.get("contents") instanceof String)) {
+            files.remove(key(configChannel, configPath));
+            return;
+        }
+        files.put(key(configChannel, configPath), new Entry(modified, new HashMap<String, Object>(fileInfo)));
+    }
+
+    public synchronized void invalidate(String configChannel, String configPath) {
+        files.remove(key(configChannel, configPath));
+    }
+
+    public synchronized void clear() {
+        files.clear();
+    }
+
+    public synchronized int size() {
+        return files.size();
+    }
+
+    private static String key(String configChannel, String configPath) {
+        return configChannel + '\n' + configPath;
+    }
+
+    /**
+     * Entry
+     */
+    private static class Entry {
+        private final Date modified;
+        private final Map<String, Object> fileInfo;
+
+        Entry(Date modified, Map<String, Object> fileInfo) {
+            this.modified = modified;
+            this.fileInfo = fileInfo;
+        }
+    }
+
+}
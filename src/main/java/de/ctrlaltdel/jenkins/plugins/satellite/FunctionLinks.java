@@ -8,6 +8,9 @@ import java.io.IOException;
 import java.util.List;
 
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import jenkins.model.Jenkins;
 
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
@@ -31,6 +34,22 @@ public class FunctionLinks implements RootAction {
         listBoxModel.writeTo(req, rsp);
     }
 
+    /**
+     * doInvalidateCache, POST drops the cached channels and groups of the list boxes and the cached config files
+     */
+    public void doInvalidateCache(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+        Jenkins jenkins = Jenkins.getInstance();
+        jenkins.checkPermission(Jenkins.ADMINISTER);
+        if (!"POST".equals(req.getMethod())) {
+            rsp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED, "POST required");
+            return;
+        }
+        PluginConfiguration configuration = (PluginConfiguration) jenkins.getDescriptorOrDie(PluginConfiguration.class);
+        configuration.getListCache().invalidate();
+        configuration.getConfigCache().clear();
+        rsp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
     public String getIconFileName() {
         return null;
     }
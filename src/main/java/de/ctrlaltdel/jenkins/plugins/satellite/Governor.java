@@ -0,0 +1,212 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Governor, limits the Satellite traffic of all builds on this controller.
+ * <p>
+ * XML-RPC calls and <code>/PACKAGE-PUSH</code> uploads have separate limits. Waiting requests are queued per job
+ * (the build listener of the connection) and a free slot goes to the jobs in turn, so a job queueing many requests,
+ * like a pipelined push of many rpms, gets one slot after the other while a later job with a single request is
+ * served with the next free slot. Requests without a job share one queue.
+ *
+ * @author ds
+ */
+public class Governor {
+
+    public enum Kind {
+        RPC, UPLOAD
+    }
+
+    /** queue key of the requests not made for a build */
+    private static final Object NO_JOB = new Object();
+
+    private final Slots calls;
+    private final Slots uploads;
+
+    Governor(int maxCalls, int maxUploads) {
+        this.calls = new Slots(maxCalls);
+        this.uploads = new Slots(maxUploads);
+    }
+
+    /**
+     * limit, changes the limits in place, permits held by running requests are released to the same slots
+     */
+    void limit(int maxCalls, int maxUploads) {
+        calls.limit(maxCalls);
+        uploads.limit(maxUploads);
+    }
+
+    /**
+     * acquire, waits for a free slot, the permit has to be released when the request is done
+     */
+    public Permit acquire(Kind kind) throws InterruptedException {
+        return acquire(kind, null);
+    }
+
+    /**
+     * acquire, waits for a free slot in the queue of the job, the permit has to be released when the request is done
+     */
+    public Permit acquire(Kind kind, Object job) throws InterruptedException {
+        Slots slots = slots(kind);
+        long start = System.currentTimeMillis();
+        slots.acquire(job == null ? NO_JOB : job);
+        return new Permit(slots, System.currentTimeMillis() - start);
+    }
+
+    public int getMaxCalls() {
+        return calls.getLimit();
+    }
+
+    public int getMaxUploads() {
+        return uploads.getLimit();
+    }
+
+    /**
+     * getInFlight, number of requests currently running
+     */
+    public int getInFlight(Kind kind) {
+        return slots(kind).getInUse();
+    }
+
+    /**
+     * getQueueLength, number of requests waiting for a slot
+     */
+    public int getQueueLength(Kind kind) {
+        return slots(kind).getWaiting();
+    }
+
+    private Slots slots(Kind kind) {
+        return kind == Kind.RPC ? calls : uploads;
+    }
+
+    /**
+     * Slots, a counting limit with a queue per job, the jobs are served round-robin
+     */
+    private static class Slots {
+        private final Map<Object, LinkedList<Waiter>> queues = new LinkedHashMap<Object, LinkedList<Waiter>>();
+        private int limit;
+        private int inUse;
+        private int waiting;
+
+        Slots(int limit) {
+            this.limit = limit;
+        }
+
+        synchronized void acquire(Object job) throws InterruptedException {
+            if (inUse < limit && waiting == 0) {
+                inUse++;
+                return;
+            }
+            Waiter waiter = new Waiter();
+            LinkedList<Waiter> queue = queues.get(job);
+            if (queue == null) {
+                queue = new LinkedList<Waiter>();
+                queues.put(job, queue);
+            }
+            queue.add(waiter);
+            waiting++;
+            try {
+                while (!waiter.granted) {
+                    wait();
+                }
+            } catch (InterruptedException x) {
+                if (waiter.granted) {
+                    // granted meanwhile, hand the slot on
+                    release();
+                } else {
+                    queue.remove(waiter);
+                    waiting--;
+                    if (queue.isEmpty()) {
+                        queues.remove(job);
+                    }
+                }
+                throw x;
+            }
+        }
+
+        synchronized void release() {
+            inUse--;
+            grant();
+        }
+
+        synchronized void limit(int limit) {
+            this.limit = limit;
+            grant();
+        }
+
+        /**
+         * grant, the free slots to the first waiter of each job in turn, a served job goes to the end of the line
+         */
+        private void grant() {
+            boolean granted = false;
+            while (inUse < limit && 0 < waiting) {
+                Iterator<Map.Entry<Object, LinkedList<Waiter>>> it = queues.entrySet().iterator();
+                Map.Entry<Object, LinkedList<Waiter>> next = it.next();
+                it.remove();
+                LinkedList<Waiter> queue = next.getValue();
+                queue.removeFirst().granted = true;
+                waiting--;
+                inUse++;
+                granted = true;
+                if (!queue.isEmpty()) {
+                    queues.put(next.getKey(), queue);
+                }
+            }
+            if (granted) {
+                notifyAll();
+            }
+        }
+
+        synchronized int getLimit() {
+            return limit;
+        }
+
+        synchronized int getInUse() {
+            return inUse;
+        }
+
+        synchronized int getWaiting() {
+            return waiting;
+        }
+    }
+
+    /**
+     * Waiter
+     */
+    private static class Waiter {
+        private boolean granted;
+    }
+
+    /**
+     * Permit, a slot held by one request
+     */
+    public static class Permit {
+        private final Slots slots;
+        private final long waitMillis;
+        private boolean released;
+
+        private Permit(Slots slots, long waitMillis) {
+            this.slots = slots;
+            this.waitMillis = waitMillis;
+        }
+
+        /**
+         * getWaitMillis, time spent in the queue
+         */
+        public long getWaitMillis() {
+            return waitMillis;
+        }
+
+        public synchronized void release() {
+            if (!released) {
+                released = true;
+                slots.release();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * GroupCache, the systems of the system groups, shared by remote scripts over SSH and scheduled by Satellite.
+ * <p>
+ * The members of a group are read with <code>systemgroup.listSystems</code> and served for the TTL, builds of
+ * the same group wait for one read. A refresh after the TTL logs the systems that joined or left the group.
+ *
+ * @author ds
+ */
+public class GroupCache {
+
+    /**
+     * Member, a system of a group
+     */
+    public static class Member {
+        private final int id;
+        private final String hostname;
+
+        public Member(int id, String hostname) {
+            this.id = id;
+            this.hostname = hostname;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getHostname() {
+            return hostname;
+        }
+    }
+
+    private final long ttlMillis;
+    private final Map<String, Entry> groups = new HashMap<String, Entry>();
+
+    public GroupCache(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * members, the systems of the group, read again once the TTL is over
+     */
+    public List<Member> members(SatelliteConnection connection, String group) {
+        Entry entry = entry(group);
+        synchronized (entry) {
+            long now = System.currentTimeMillis();
+            if (entry.members != null && now - entry.loaded < ttlMillis) {
+                return entry.members;
+            }
+            List<Member> members = Collections.unmodifiableList(connection.fetchMembers(group));
+            if (entry.members != null) {
+                logChanges(connection, group, entry.members, members);
+            }
+            entry.members = members;
+            entry.loaded = now;
+            return members;
+        }
+    }
+
+    /**
+     * invalidate, the next access reads the group again
+     */
+    public synchronized void invalidate(String group) {
+        groups.remove(group);
+    }
+
+    public synchronized void clear() {
+        groups.clear();
+    }
+
+    private static void logChanges(SatelliteConnection connection, String group, List<Member> previous, List<Member> members) {
+        Set<Integer> previousIds = new HashSet<Integer>();
+        for (Member member : previous) {
+            previousIds.add(member.getId());
+        }
+        List<String> joined = new ArrayList<String>();
+        for (Member member : members) {
+            if (!previousIds.remove(member.getId())) {
+                joined.add(member.getHostname());
+            }
+        }
+        List<String> left = new ArrayList<String>();
+        for (Member member : previous) {
+            if (previousIds.contains(member.getId())) {
+                left.add(member.getHostname());
+            }
+        }
+        if (!joined.isEmpty()) {
+            connection.info("group '" + group + "': joined " + joined);
+        }
+        if (!left.isEmpty()) {
+            connection.info("group '" + group + "': left " + left);
+        }
+    }
+
+    private synchronized Entry entry(String group) {
+        Entry entry = groups.get(group);
+        if (entry == null) {
+            entry = new Entry();
+            groups.put(group, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Entry, guarded by itself
+     */
+    private static class Entry {
+        private List<Member> members;
+        private long loaded;
+    }
+
+}
@@ -0,0 +1,148 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.util.EntityUtils;
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcClientException;
+import org.apache.xmlrpc.client.XmlRpcHttpClientConfig;
+import org.apache.xmlrpc.client.XmlRpcHttpTransport;
+import org.apache.xmlrpc.client.XmlRpcHttpTransportException;
+import org.apache.xmlrpc.client.XmlRpcTransport;
+import org.apache.xmlrpc.client.XmlRpcTransportFactoryImpl;
+import org.apache.xmlrpc.common.XmlRpcStreamRequestConfig;
+import org.xml.sax.SAXException;
+
+/**
+ * HttpClientTransport, XML-RPC over the pooled HttpClient 4 connections of the {@link HttpConnectionPool}
+ * @author ds
+ */
+public class HttpClientTransport extends XmlRpcHttpTransport {
+
+    private final HttpConnectionPool connectionPool;
+    private final SatelliteMetrics metrics;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private String method;
+    private HttpPost httpPost;
+    private HttpResponse response;
+    private long contentLength = -1;
+
+    HttpClientTransport(XmlRpcClient client, HttpConnectionPool connectionPool, SatelliteMetrics metrics) {
+        super(client, USER_AGENT + " (HttpClient 4)");
+        this.connectionPool = connectionPool;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Object sendRequest(XmlRpcRequest request) throws XmlRpcException {
+        XmlRpcHttpClientConfig config = (XmlRpcHttpClientConfig) request.getConfig();
+        try {
+            httpPost = new HttpPost(config.getServerURL().toURI());
+        } catch (Exception x) {
+            throw new XmlRpcClientException("Invalid server url: " + config.getServerURL(), x);
+        }
+        method = request.getMethodName();
+        return super.sendRequest(request);
+    }
+
+    @Override
+    protected void setRequestHeader(String header, String value) {
+        httpPost.setHeader(header, value);
+    }
+
+    @Override
+    protected void setContentLength(int length) {
+        // the entity carries the length, HttpClient refuses an explicit Content-Length header
+        contentLength = length;
+    }
+
+    @Override
+    protected void writeRequest(final ReqWriter writer) throws XmlRpcException {
+        // buffered, so the request can be sent again uncompressed if the server rejects gzip
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(0 < contentLength ? (int) contentLength : 1024);
+        try {
+            writer.write(buffer);
+        } catch (IOException x) {
+            throw new XmlRpcClientException("Failed to write the request: " + x.getMessage(), x);
+        } catch (SAXException x) {
+            throw new XmlRpcClientException("Failed to write the request: " + x.getMessage(), x);
+        }
+        ByteArrayEntity entity = new ByteArrayEntity(buffer.toByteArray());
+        Compression compression = connectionPool.getCompression();
+        try {
+            boolean compressed = compression.prepare(httpPost, entity, sent);
+            response = connectionPool.getHttpClient().execute(httpPost);
+            // a rejected call is only sent twice if it cannot change anything on Satellite
+            if (compressed && compression.isRejected(response) && isReplayable(method)) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                compression.fallback(httpPost, entity, sent);
+                response = connectionPool.getHttpClient().execute(httpPost);
+            }
+        } catch (IOException x) {
+            throw new XmlRpcClientException("I/O error while communicating with HTTP server: " + x.getMessage(), x);
+        }
+    }
+
+    /**
+     * isReplayable, read-only methods and the login, which only opens a session
+     */
+    static boolean isReplayable(String method) {
+        return SatelliteConnection.isIdempotent(method) || "auth.login".equals(method);
+    }
+
+    @Override
+    protected InputStream getInputStream() throws XmlRpcException {
+        int status = response.getStatusLine().getStatusCode();
+        if (status < 200 || 299 < status) {
+            throw new XmlRpcHttpTransportException(status, response.getStatusLine().getReasonPhrase());
+        }
+        try {
+            return connectionPool.getCompression().decode(response, received);
+        } catch (IOException x) {
+            throw new XmlRpcClientException("I/O error while reading the response: " + x.getMessage(), x);
+        }
+    }
+
+    @Override
+    protected boolean isResponseGzipCompressed(XmlRpcStreamRequestConfig config) {
+        // already uncompressed by Compression.decode
+        return false;
+    }
+
+    @Override
+    protected void close() throws XmlRpcClientException {
+        if (response != null) {
+            // releases the connection back to the pool
+            EntityUtils.consumeQuietly(response.getEntity());
+        }
+        metrics.recordBytes(method, sent.get(), received.get());
+    }
+
+    /**
+     * Factory
+     */
+    static class Factory extends XmlRpcTransportFactoryImpl {
+        private final HttpConnectionPool connectionPool;
+        private final SatelliteMetrics metrics;
+
+        Factory(XmlRpcClient client, HttpConnectionPool connectionPool, SatelliteMetrics metrics) {
+            super(client);
+            this.connectionPool = connectionPool;
+            this.metrics = metrics;
+        }
+
+        public XmlRpcTransport getTransport() {
+            return new HttpClientTransport(getClient(), connectionPool, metrics);
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import java.io.IOException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLContexts;
+import org.apache.http.conn.ssl.TrustStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * HttpConnectionPool, keep-alive connections to Satellite shared by the XML-RPC transport and the package upload.
+ * @author ds
+ */
+public class HttpConnectionPool {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final long idleTimeoutMillis;
+    private final Compression compression;
+
+    HttpConnectionPool(PluginConfiguration configuration) {
+        RegistryBuilder<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory> create();
+        registry.register("http", PlainConnectionSocketFactory.getSocketFactory());
+        registry.register("https", trustAllSocketFactory());
+        connectionManager = new PoolingHttpClientConnectionManager(registry.build());
+        connectionManager.setDefaultMaxPerRoute(configuration.getMaxConnectionsPerRoute());
+        connectionManager.setMaxTotal(configuration.getMaxConnectionsPerRoute());
+
+        idleTimeoutMillis = configuration.getIdleTimeout() * 1000L;
+        compression = new Compression(configuration.isGzip(), configuration.isGzipRequests(), configuration.getMetrics().getCompression());
+
+        // a stalled Satellite fails the request, so it is retried and counted by the circuit breaker
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(configuration.getConnectTimeout() * 1000)
+                .setSocketTimeout(configuration.getSocketTimeout() * 1000)
+                .setConnectionRequestTimeout(configuration.getConnectionRequestTimeout() * 1000)
+                .build();
+
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(new KeepAliveStrategy(configuration.getKeepAlive() * 1000L))
+                .disableContentCompression()
+                .disableCookieManagement()
+                .build();
+    }
+
+    public CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * evictIdle, closes expired connections and connections idle longer than the idle timeout
+     */
+    public void evictIdle() {
+        connectionManager.closeExpiredConnections();
+        connectionManager.closeIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * retire, the pool was replaced, idle connections are closed at once, leased ones stay open until they come back
+     */
+    public void retire() {
+        connectionManager.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * isDrained, no connection is leased anymore
+     */
+    public boolean isDrained() {
+        return connectionManager.getTotalStats().getLeased() == 0;
+    }
+
+    /**
+     * close
+     */
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException x) {
+            // ignore
+        }
+        connectionManager.shutdown();
+    }
+
+    /**
+     * trustAllSocketFactory, Satellite usually runs with a self signed certificate
+     */
+    static SSLConnectionSocketFactory trustAllSocketFactory() {
+        TrustStrategy trustStrategy = new TrustStrategy() {
+            public boolean isTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+                return true;
+            }
+        };
+        try {
+            SSLContext sslContext = SSLContexts.custom().loadTrustMaterial(null, trustStrategy).build();
+            return new SSLConnectionSocketFactory(sslContext, SSLConnectionSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
+        } catch (Exception x) {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    /**
+     * KeepAliveStrategy, honors the Keep-Alive header of the server, the configured keep-alive otherwise
+     */
+    private static class KeepAliveStrategy implements ConnectionKeepAliveStrategy {
+        private final long keepAliveMillis;
+
+        KeepAliveStrategy(long keepAliveMillis) {
+            this.keepAliveMillis = keepAliveMillis;
+        }
+
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (it.hasNext()) {
+                HeaderElement element = it.nextElement();
+                if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                    try {
+                        return Math.min(Long.parseLong(element.getValue()) * 1000L, keepAliveMillis);
+                    } catch (NumberFormatException x) {
+                        // ignore
+                    }
+                }
+            }
+            return keepAliveMillis;
+        }
+    }
+
+}
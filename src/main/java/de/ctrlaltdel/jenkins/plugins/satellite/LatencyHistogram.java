@@ -0,0 +1,138 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram, lock-free log-linear histogram of latencies in milliseconds.
+ * <p>
+ * Like an HDR histogram every power of two is split into {@link #SUB_BUCKETS} linear sub-buckets, so a
+ * recorded value is off by at most 12.5% over the whole range up to {@link #MAX_VALUE} ms. Values below
+ * {@link #SUB_BUCKETS} ms are exact. Values of exactly a power of two are counted apart as well, so the inclusive
+ * bounds of {@link #countAtMost} are exact.
+ *
+ * @author ds
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int MAX_MAGNITUDE = 30;
+    static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + 1)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS + (MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+    private final AtomicLongArray powersOfTwo = new AtomicLongArray(MAX_MAGNITUDE + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * record a latency in milliseconds
+     */
+    public void record(long millis) {
+        long value = Math.max(0, Math.min(MAX_VALUE, millis));
+        counts.incrementAndGet(index(value));
+        if (0 < value && (value & (value - 1)) == 0) {
+            powersOfTwo.incrementAndGet(63 - Long.numberOfLeadingZeros(value));
+        }
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while ((current = max.get()) < value && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * getSum, total of all recorded latencies in milliseconds
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * getPercentile, upper bound of the bucket holding the given percentile (0-100)
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[counts.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (rank <= seen) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * countBelow, number of recorded latencies below the given power of two milliseconds
+     */
+    public long countBelow(int magnitude) {
+        long limit = 1L << magnitude;
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            if (limit <= lowerBound(i)) {
+                break;
+            }
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * countAtMost, number of recorded latencies up to and including the given power of two milliseconds
+     */
+    public long countAtMost(int magnitude) {
+        return countBelow(magnitude) + powersOfTwo.get(magnitude);
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (magnitude - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return (1L << magnitude) + ((long) sub << (magnitude - SUB_BUCKET_BITS));
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        return lowerBound(index) + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+    }
+
+}
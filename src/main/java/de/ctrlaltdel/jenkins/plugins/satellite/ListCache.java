@@ -0,0 +1,155 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+/**
+ * ListCache, the channels, config channels and system groups shown in the list boxes of the job configuration.
+ * <p>
+ * A list is loaded once and served for the TTL. After that the stale list is still served while it is refreshed
+ * in the background on the executor of the {@link PluginConfiguration}, so a config page never waits for Satellite
+ * once the list was loaded. A failed refresh keeps the stale list. {@link #invalidate()} drops all lists.
+ *
+ * @author ds
+ */
+public class ListCache {
+
+    private static final Logger LOGGER = Logger.getLogger(ListCache.class.getName());
+
+    /**
+     * Kind
+     */
+    public enum Kind {
+        CHANNELS {
+            List<String> load(SatelliteConnection connection) {
+                return connection.listChannels();
+            }
+        },
+        CONFIG_CHANNELS {
+            List<String> load(SatelliteConnection connection) {
+                return connection.listConfigChannels();
+            }
+        },
+        SYSTEM_GROUPS {
+            List<String> load(SatelliteConnection connection) {
+                return connection.listGroups();
+            }
+        };
+
+        abstract List<String> load(SatelliteConnection connection);
+    }
+
+    private final PluginConfiguration configuration;
+    private final long ttlMillis;
+    private final Map<Kind, Entry> entries = new EnumMap<Kind, Entry>(Kind.class);
+
+    public ListCache(PluginConfiguration configuration, long ttlMillis) {
+        this.configuration = configuration;
+        this.ttlMillis = ttlMillis;
+        for (Kind kind : Kind.values()) {
+            entries.put(kind, new Entry());
+        }
+    }
+
+    /**
+     * shared, the cache of the Jenkins configuration
+     */
+    public static ListCache shared() {
+        PluginConfiguration configuration = (PluginConfiguration) Jenkins.getInstance().getDescriptorOrDie(PluginConfiguration.class);
+        return configuration.getListCache();
+    }
+
+    public List<String> getChannels() {
+        return get(Kind.CHANNELS);
+    }
+
+    public List<String> getConfigChannels() {
+        return get(Kind.CONFIG_CHANNELS);
+    }
+
+    public List<String> getSystemGroups() {
+        return get(Kind.SYSTEM_GROUPS);
+    }
+
+    /**
+     * get, loads the list on first use, a stale list is returned and refreshed in the background
+     */
+    public List<String> get(final Kind kind) {
+        final Entry entry = entries.get(kind);
+        List<String> stale;
+        synchronized (entry) {
+            if (entry.value == null) {
+                // concurrent first accesses wait for one load
+                store(entry, fetch(kind));
+                return entry.value;
+            }
+            if (System.currentTimeMillis() - entry.loaded < ttlMillis || entry.refreshing) {
+                return entry.value;
+            }
+            stale = entry.value;
+            entry.refreshing = true;
+        }
+        configuration.getExecutor().submit(new Runnable() {
+            public void run() {
+                try {
+                    List<String> value = fetch(kind);
+                    synchronized (entry) {
+                        store(entry, value);
+                    }
+                } catch (RuntimeException x) {
+                    LOGGER.log(Level.WARNING, "refresh of " + kind + " failed, keeping the cached list", x);
+                } finally {
+                    synchronized (entry) {
+                        entry.refreshing = false;
+                    }
+                }
+            }
+        });
+        return stale;
+    }
+
+    /**
+     * invalidate, the next access loads all lists again
+     */
+    public void invalidate() {
+        for (Kind kind : Kind.values()) {
+            invalidate(kind);
+        }
+    }
+
+    public void invalidate(Kind kind) {
+        Entry entry = entries.get(kind);
+        synchronized (entry) {
+            entry.value = null;
+            entry.loaded = 0;
+        }
+    }
+
+    private List<String> fetch(Kind kind) {
+        return Collections.unmodifiableList(kind.load(SatelliteConnection.from(configuration).forOneCall()));
+    }
+
+    /**
+     * store, the caller holds the lock of the entry
+     */
+    private static void store(Entry entry, List<String> value) {
+        entry.value = value;
+        entry.loaded = System.currentTimeMillis();
+    }
+
+    /**
+     * Entry, guarded by itself
+     */
+    private static class Entry {
+        private List<String> value;
+        private long loaded;
+        private boolean refreshing;
+    }
+
+}
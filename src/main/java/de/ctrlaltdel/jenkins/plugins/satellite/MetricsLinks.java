@@ -0,0 +1,67 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+
+import jenkins.model.Jenkins;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * MetricsLinks, Satellite request metrics for monitoring:
+ * <code>/satellite-metrics/prometheus</code> in Prometheus text format and
+ * <code>/satellite-metrics/json</code>
+ *
+ * @author ds
+ */
+@Extension
+public class MetricsLinks implements RootAction {
+
+    /**
+     * doPrometheus
+     */
+    public void doPrometheus(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+        SatelliteMetrics metrics = getMetrics();
+        rsp.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+        PrintWriter writer = rsp.getWriter();
+        writer.print(metrics.toPrometheus());
+        writer.flush();
+    }
+
+    /**
+     * doJson
+     */
+    public void doJson(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+        SatelliteMetrics metrics = getMetrics();
+        rsp.setContentType("application/json; charset=UTF-8");
+        PrintWriter writer = rsp.getWriter();
+        writer.print(metrics.toJson().toString());
+        writer.flush();
+    }
+
+    private SatelliteMetrics getMetrics() {
+        Jenkins jenkins = Jenkins.getInstance();
+        jenkins.checkPermission(Jenkins.READ);
+        PluginConfiguration configuration = (PluginConfiguration) jenkins.getDescriptorOrDie(PluginConfiguration.class);
+        return configuration.getMetrics();
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return "/satellite-metrics";
+    }
+
+    public String getDisplayName() {
+        return "satellite-metrics";
+    }
+
+}
@@ -0,0 +1,155 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+/**
+ * Multicall, queues XML-RPC calls and sends them as <code>system.multicall</code> in chunks.
+ * <p>
+ * If the server does not support <code>system.multicall</code> the queued calls are executed one
+ * after the other, the caller gets the same per-entry results either way.
+ *
+ * @author ds
+ */
+public class Multicall {
+
+    /** calls per HTTP request */
+    static final int CHUNK_SIZE = 100;
+
+    private final SatelliteConnection connection;
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    Multicall(SatelliteConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * add a call, returns the index of its result
+     */
+    public int add(String method, Object... args) {
+        entries.add(new Entry(method, args));
+        return entries.size() - 1;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * flush, executes all queued calls and returns their results in the order they were added
+     */
+    public List<Result> flush() {
+        List<Result> results = new ArrayList<Result>(entries.size());
+        try {
+            for (int start = 0; start < entries.size(); start += CHUNK_SIZE) {
+                List<Entry> chunk = entries.subList(start, Math.min(start + CHUNK_SIZE, entries.size()));
+                if (connection.isMulticallSupported()) {
+                    try {
+                        results.addAll(multicall(chunk));
+                        continue;
+                    } catch (XmlRpcException x) {
+                        if (x.code == 0 || !results.isEmpty()) {
+                            throw new IllegalStateException(x);
+                        }
+                        connection.warn("system.multicall not supported (" + x.getMessage() + "), calling sequentially");
+                        connection.setMulticallSupported(false);
+                    }
+                }
+                results.addAll(sequential(chunk));
+            }
+        } finally {
+            entries.clear();
+        }
+        return results;
+    }
+
+    /**
+     * multicall
+     */
+    private List<Result> multicall(List<Entry> chunk) throws XmlRpcException {
+        List<Map<String, Object>> calls = new ArrayList<Map<String, Object>>(chunk.size());
+        boolean idempotent = true;
+        for (Entry entry : chunk) {
+            idempotent &= SatelliteConnection.isIdempotent(entry.method);
+            Map<String, Object> call = new HashMap<String, Object>();
+            call.put("methodName", entry.method);
+            call.put("params", connection.params(entry.args));
+            calls.add(call);
+        }
+        Object[] responses = (Object[]) connection.executeMulticall(calls, idempotent);
+        List<Result> results = new ArrayList<Result>(responses.length);
+        for (Object response : responses) {
+            if (response instanceof Map) {
+                Map<?, ?> fault = (Map<?, ?>) response;
+                Object faultCode = fault.get("faultCode");
+                results.add(new Result(null, new XmlRpcException(faultCode instanceof Integer ? (Integer) faultCode : 0, (String) fault.get("faultString"))));
+            } else {
+                results.add(new Result(SatelliteConnection.convert(((Object[]) response)[0]), null));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * sequential
+     */
+    private List<Result> sequential(List<Entry> chunk) {
+        List<Result> results = new ArrayList<Result>(chunk.size());
+        for (Entry entry : chunk) {
+            try {
+                results.add(new Result(SatelliteConnection.convert(connection.execute(entry.method, entry.args)), null));
+            } catch (XmlRpcException x) {
+                results.add(new Result(null, x));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Entry
+     */
+    private static class Entry {
+        private final String method;
+        private final Object[] args;
+
+        Entry(String method, Object[] args) {
+            this.method = method;
+            this.args = args;
+        }
+    }
+
+    /**
+     * Result of a single call, either a value or a fault
+     */
+    public static class Result {
+        private final Object value;
+        private final XmlRpcException fault;
+
+        Result(Object value, XmlRpcException fault) {
+            this.value = value;
+            this.fault = fault;
+        }
+
+        public boolean isFault() {
+            return fault != null;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T> T getValue() {
+            return (T) value;
+        }
+
+        public XmlRpcException getFault() {
+            return fault;
+        }
+
+        public String getFaultString() {
+            return fault == null ? null : fault.getMessage();
+        }
+    }
+
+}
@@ -9,40 +9,56 @@ public class NVR {
     private final String name;
     private final String version;
     private final String release;
+    private final String epoch;
+    private final String arch;
 
     /**
      * NVR
      */
     public NVR(String name, String version, String release) {
+        this(name, version, release, null);
+    }
+
+    /**
+     * NVR, with the arch, null if unknown
+     */
+    public NVR(String name, String version, String release, String arch) {
+        this(name, version, release, null, arch);
+    }
+
+    /**
+     * NVR, with epoch and arch as read from the rpm header, null if unknown
+     */
+    public NVR(String name, String version, String release, String epoch, String arch) {
         this.name = name;
         this.version = version;
         this.release = release;
+        this.epoch = epoch;
+        this.arch = arch;
     }
 
     /**
-     * NVR
+     * NVR, parses <code>name-version-release.arch.rpm</code>, the arch is only known with the <code>.rpm</code> suffix
      */
     public NVR(String rpmName) {
-        String[] nvr = new String[2];
-        char delimiter = '.';
-        for (int token = 1; 0 <= token; token--) {
-            int idx = rpmName.lastIndexOf('-');
-            StringBuilder tmp = new StringBuilder();
-            for (int i = idx + 1; i < rpmName.length(); i++) {
-                char c = rpmName.charAt(i);
-                if (c == delimiter) {
-                    break;
-                }
-                tmp.append(c);
+        String nvr = rpmName;
+        String parsedArch = null;
+        if (nvr.endsWith(".rpm")) {
+            nvr = nvr.substring(0, nvr.length() - 4);
+            int dot = nvr.lastIndexOf('.');
+            if (nvr.lastIndexOf('-') < dot) {
+                parsedArch = nvr.substring(dot + 1);
+                nvr = nvr.substring(0, dot);
             }
-            nvr[token] = tmp.toString();
-            tmp.setLength(0);
-            rpmName = rpmName.substring(0, idx);
-            delimiter = '-';
         }
-        name = rpmName;
-        version = nvr[0];
-        release = nvr[1];
+        int idx = nvr.lastIndexOf('-');
+        release = nvr.substring(idx + 1);
+        nvr = nvr.substring(0, idx);
+        idx = nvr.lastIndexOf('-');
+        version = nvr.substring(idx + 1);
+        name = nvr.substring(0, idx);
+        epoch = null;
+        arch = parsedArch;
     }
 
     public String getName() {
@@ -57,6 +73,93 @@ public class NVR {
         return version;
     }
 
+    public String getEpoch() {
+        return epoch;
+    }
+
+    public String getArch() {
+        return arch;
+    }
+
+    /**
+     * rpmvercmp, compares versions or releases like rpm: alternating numeric and alphabetic segments, numeric
+     * segments are newer than alphabetic ones and a tilde sorts before anything, even the end of the string
+     */
+    public static int rpmvercmp(String a, String b) {
+        if (a.equals(b)) {
+            return 0;
+        }
+        int i = 0;
+        int j = 0;
+        while (i < a.length() || j < b.length()) {
+            while (i < a.length() && !Character.isLetterOrDigit(a.charAt(i)) && a.charAt(i) != '~') {
+                i++;
+            }
+            while (j < b.length() && !Character.isLetterOrDigit(b.charAt(j)) && b.charAt(j) != '~') {
+                j++;
+            }
+            boolean tildeA = i < a.length() && a.charAt(i) == '~';
+            boolean tildeB = j < b.length() && b.charAt(j) == '~';
+            if (tildeA || tildeB) {
+                if (!tildeA) {
+                    return 1;
+                }
+                if (!tildeB) {
+                    return -1;
+                }
+                i++;
+                j++;
+                continue;
+            }
+            if (a.length() <= i || b.length() <= j) {
+                break;
+            }
+            boolean numeric = Character.isDigit(a.charAt(i));
+            int startA = i;
+            int startB = j;
+            while (i < a.length() && isSegment(a.charAt(i), numeric)) {
+                i++;
+            }
+            while (j < b.length() && isSegment(b.charAt(j), numeric)) {
+                j++;
+            }
+            if (startB == j) {
+                // different segment types, numeric is newer
+                return numeric ? 1 : -1;
+            }
+            String segmentA = a.substring(startA, i);
+            String segmentB = b.substring(startB, j);
+            if (numeric) {
+                segmentA = stripZeros(segmentA);
+                segmentB = stripZeros(segmentB);
+                if (segmentA.length() != segmentB.length()) {
+                    return segmentA.length() < segmentB.length() ? -1 : 1;
+                }
+            }
+            int result = segmentA.compareTo(segmentB);
+            if (result != 0) {
+                return result < 0 ? -1 : 1;
+            }
+        }
+        if (a.length() <= i && b.length() <= j) {
+            return 0;
+        }
+        // the string with segments left is newer
+        return a.length() <= i ? -1 : 1;
+    }
+
+    private static boolean isSegment(char c, boolean numeric) {
+        return numeric ? Character.isDigit(c) : Character.isLetter(c);
+    }
+
+    private static String stripZeros(String segment) {
+        int i = 0;
+        while (i < segment.length() - 1 && segment.charAt(i) == '0') {
+            i++;
+        }
+        return segment.substring(i);
+    }
+
     @Override
     public String toString() {
         return name + '-' + version + '-' + release;
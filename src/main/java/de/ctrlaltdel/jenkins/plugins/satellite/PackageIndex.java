@@ -0,0 +1,81 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * PackageIndex, the package ids by name, version, release, epoch and arch.
+ * <p>
+ * Fed by the package lists read from Satellite and by the lookups after an upload, so a known package id is
+ * resolved without a call. An id stays valid until the package is deleted, {@link #removed(Collection)} drops it.
+ *
+ * @author ds
+ */
+public class PackageIndex {
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private final ConcurrentMap<Integer, String> keys = new ConcurrentHashMap<Integer, String>();
+
+    /**
+     * add, a package of a channel
+     */
+    public void add(PackageRecord record) {
+        put(key(record.getName(), record.getVersion(), record.getRelease(), record.getEpoch(), record.getArch()), record.getId());
+    }
+
+    /**
+     * add, a package found for the nvr with the epoch and arch of Satellite
+     */
+    public void add(NVR nvr, String epoch, String arch, int id) {
+        put(key(nvr.getName(), nvr.getVersion(), nvr.getRelease(), epoch, arch), id);
+    }
+
+    /**
+     * find, the id of the package, null if not known or the arch of the nvr is unknown
+     */
+    public Integer find(NVR nvr) {
+        if (nvr.getArch() == null) {
+            return null;
+        }
+        return ids.get(key(nvr.getName(), nvr.getVersion(), nvr.getRelease(), nvr.getEpoch(), nvr.getArch()));
+    }
+
+    public Integer find(String name, String version, String release, String epoch, String arch) {
+        return ids.get(key(name, version, release, epoch, arch));
+    }
+
+    /**
+     * removed, packages deleted from Satellite
+     */
+    public void removed(Collection<Integer> packageIds) {
+        for (Integer id : packageIds) {
+            String key = keys.remove(id);
+            if (key != null) {
+                ids.remove(key, id);
+            }
+        }
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    public void clear() {
+        ids.clear();
+        keys.clear();
+    }
+
+    private void put(String key, int id) {
+        Integer previous = ids.put(key, id);
+        if (previous != null && previous != id) {
+            keys.remove(previous, key);
+        }
+        keys.put(id, key);
+    }
+
+    private static String key(String name, String version, String release, String epoch, String arch) {
+        return name + '-' + version + '-' + release + ':' + (epoch == null ? "" : epoch.trim()) + '.' + arch;
+    }
+
+}
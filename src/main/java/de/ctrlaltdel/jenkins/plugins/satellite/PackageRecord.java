@@ -0,0 +1,132 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * PackageRecord, immutable and compact view of a package in a channel.
+ * <p>
+ * Name, version, release, epoch and arch repeat a lot across a channel and are interned,
+ * the modification date is parsed once when the record is decoded.
+ *
+ * @author ds
+ */
+public final class PackageRecord {
+
+    /** format of <code>last_modified_date</code> in <code>channel.software.listAllPackages</code> */
+    public static final String DATE_PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+    private final int id;
+    private final String name;
+    private final String version;
+    private final String release;
+    private final String epoch;
+    private final String arch;
+    private final long lastModified;
+    private final String checksum;
+
+    public PackageRecord(int id, String name, String version, String release, String epoch, String arch, long lastModified, String checksum) {
+        this.id = id;
+        this.name = intern(name);
+        this.version = intern(version);
+        this.release = intern(release);
+        this.epoch = intern(epoch == null ? "" : epoch.trim());
+        this.arch = intern(arch);
+        this.lastModified = lastModified;
+        this.checksum = checksum;
+    }
+
+    /**
+     * Handler, receives the records of a channel one by one
+     */
+    public interface Handler {
+        void handle(PackageRecord record);
+    }
+
+    /**
+     * Decoder, turns the structs of a package list into records, not thread-safe
+     */
+    public static class Decoder {
+        private final DateFormat dateFormat = new SimpleDateFormat(DATE_PATTERN);
+
+        public PackageRecord decode(Map<String, Object> struct) {
+            return new PackageRecord(
+                    ((Number) struct.get("id")).intValue(),
+                    (String) struct.get("name"),
+                    (String) struct.get("version"),
+                    (String) struct.get("release"),
+                    (String) struct.get("epoch"),
+                    (String) struct.get("arch_label"),
+                    parseDate(struct.get("last_modified_date")),
+                    (String) struct.get("checksum"));
+        }
+
+        private long parseDate(Object date) {
+            if (date instanceof Date) {
+                return ((Date) date).getTime();
+            }
+            if (date instanceof String) {
+                try {
+                    return dateFormat.parse((String) date).getTime();
+                } catch (Exception x) {
+                    // fall through
+                }
+            }
+            return -1L;
+        }
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getRelease() {
+        return release;
+    }
+
+    public String getEpoch() {
+        return epoch;
+    }
+
+    public String getArch() {
+        return arch;
+    }
+
+    /**
+     * getLastModified, epoch millis or -1 if Satellite delivered no valid date
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * getPackageName, name-version-release
+     */
+    public String getPackageName() {
+        return name + '-' + version + '-' + release;
+    }
+
+    @Override
+    public String toString() {
+        return getPackageName() + (arch == null ? "" : '.' + arch) + " [" + id + ']';
+    }
+
+    private static String intern(String value) {
+        return value == null ? null : value.intern();
+    }
+
+}
@@ -11,13 +11,21 @@ import java.io.StringWriter;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import javax.servlet.ServletException;
 
 import jenkins.model.GlobalConfiguration;
+import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 
 import org.apache.commons.lang.StringUtils;
@@ -32,6 +40,20 @@ import org.kohsuke.stapler.StaplerRequest;
 @Extension
 public class PluginConfiguration extends GlobalConfiguration {
 
+    static final int DEFAULT_MAX_CONNECTIONS = 20;
+    static final int DEFAULT_KEEP_ALIVE = 60;
+    static final int DEFAULT_IDLE_TIMEOUT = 30;
+    static final int DEFAULT_CONNECT_TIMEOUT = 10;
+    static final int DEFAULT_SOCKET_TIMEOUT = 60;
+    static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT = 30;
+    static final int ASYNC_THREADS = 8;
+    static final int DEFAULT_MAX_CALLS = 10;
+    static final int DEFAULT_MAX_UPLOADS = 4;
+    static final int DEFAULT_RECONCILE_INTERVAL = 60;
+    static final int DEFAULT_LIST_CACHE_TTL = 300;
+    static final int DEFAULT_GROUP_CACHE_TTL = 300;
+    static final int DEFAULT_SSH_PORT = 22;
+
     private String user;
     private String password;
     private String url;
@@ -39,11 +61,46 @@ public class PluginConfiguration extends GlobalConfiguration {
     private String sshUser;
     private String sshPassword;
     private String sshKeyPath;
+    private int sshPort;
 //    private String timezone;
     private boolean rootAllowed;
+    private int maxConnectionsPerRoute;
+    private int keepAlive;
+    private int idleTimeout;
+    private int connectTimeout;
+    private int socketTimeout;
+    private int connectionRequestTimeout;
+    private boolean gzip = true;
+    private boolean gzipRequests;
+    private boolean sha256Checksums;
+    private boolean agentUploads;
+    private boolean skipPresentPackages = true;
+    private int maxConcurrentCalls;
+    private int maxConcurrentUploads;
+    private boolean incrementalSync = true;
+    private int reconcileInterval;
+    private int listCacheTtl;
+    private int groupCacheTtl;
 
     private transient URL satelliteUrl;
     private transient URL rpcUrl;
+    private transient SessionPool sessionPool;
+    private transient HttpConnectionPool connectionPool;
+    private transient ExecutorService executor;
+    private transient ThreadPoolExecutor uploadExecutor;
+    private transient CircuitBreaker circuitBreaker;
+    private transient Governor governor;
+    private transient SatelliteMetrics metrics;
+    private transient ChannelIndex channelIndex;
+    private transient ListCache listCache;
+    private transient ConfigCache configCache;
+    private transient GroupCache groupCache;
+    private transient PackageIndex packageIndex;
+    private transient List<HttpConnectionPool> retiredPools;
+    private transient String connectedUrl;
+    private transient String connectedUser;
+    private transient String connectedPassword;
+    private transient String connectedPoolSettings;
 
     /**
      */
@@ -56,13 +113,132 @@ public class PluginConfiguration extends GlobalConfiguration {
         }
     }
 
+    /**
+     * a detached copy of the connection settings, not wired to the shared resources
+     */
+    private PluginConfiguration(PluginConfiguration template) {
+        maxConnectionsPerRoute = template.maxConnectionsPerRoute;
+        keepAlive = template.keepAlive;
+        idleTimeout = template.idleTimeout;
+        connectTimeout = template.connectTimeout;
+        socketTimeout = template.socketTimeout;
+        connectionRequestTimeout = template.connectionRequestTimeout;
+        gzip = template.gzip;
+        gzipRequests = template.gzipRequests;
+    }
+
+    /**
+     * dispose, logs out and closes the resources of a detached configuration
+     */
+    private void dispose() {
+        SessionPool sessions;
+        HttpConnectionPool pool;
+        synchronized (this) {
+            sessions = sessionPool;
+            pool = connectionPool;
+        }
+        if (sessions != null) {
+            sessions.clear();
+        }
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * initialize, the shared resources are only replaced when the Satellite, the account or the
+     * connection settings changed, builds running meanwhile finish with the ones they hold
+     */
     private void initialize() {
+        URL satelliteUrl;
+        URL rpcUrl;
         try {
             satelliteUrl = new URL(url);
             rpcUrl = new URL(url + "/rpc/api");
         } catch (Exception x) {
             throw new IllegalStateException(x);
         }
+        boolean urlChanged = !StringUtils.equals(url, connectedUrl);
+        boolean userChanged = urlChanged || !StringUtils.equals(user, connectedUser);
+        boolean passwordChanged = userChanged || !StringUtils.equals(password, connectedPassword);
+        String poolSettings = getPoolSettings();
+        boolean poolChanged = urlChanged || !poolSettings.equals(connectedPoolSettings);
+
+        SessionPool sessions;
+        synchronized (this) {
+            this.satelliteUrl = satelliteUrl;
+            this.rpcUrl = rpcUrl;
+            connectedUrl = url;
+            connectedUser = user;
+            connectedPassword = password;
+            connectedPoolSettings = poolSettings;
+            if (governor != null) {
+                governor.limit(getMaxConcurrentCalls(), getMaxConcurrentUploads());
+            }
+            if (uploadExecutor != null && uploadExecutor.getMaximumPoolSize() != getMaxConcurrentUploads()) {
+                resize(uploadExecutor, getMaxConcurrentUploads());
+            }
+            if (poolChanged && connectionPool != null) {
+                connectionPool.retire();
+                retiredPools().add(connectionPool);
+                connectionPool = null;
+            }
+            if (userChanged) {
+                channelIndex = null;
+                listCache = null;
+                configCache = null;
+                groupCache = null;
+                packageIndex = null;
+            }
+            sessions = passwordChanged || poolChanged ? sessionPool : null;
+        }
+        if (sessions != null) {
+            sessions.clear();
+        }
+    }
+
+    private static void resize(ThreadPoolExecutor threadPool, int threads) {
+        if (threadPool.getMaximumPoolSize() < threads) {
+            threadPool.setMaximumPoolSize(threads);
+            threadPool.setCorePoolSize(threads);
+        } else {
+            threadPool.setCorePoolSize(threads);
+            threadPool.setMaximumPoolSize(threads);
+        }
+    }
+
+    /**
+     * getPoolSettings, the settings the connection pool is built with
+     */
+    private String getPoolSettings() {
+        return getMaxConnectionsPerRoute() + ":" + getKeepAlive() + ":" + getIdleTimeout() + ":" + getConnectTimeout() + ":" + getSocketTimeout()
+                + ":" + getConnectionRequestTimeout() + ":" + gzip + ":" + gzipRequests;
+    }
+
+    private List<HttpConnectionPool> retiredPools() {
+        if (retiredPools == null) {
+            retiredPools = new ArrayList<HttpConnectionPool>();
+        }
+        return retiredPools;
+    }
+
+    /**
+     * closeRetiredPools, closes replaced connection pools as soon as the last connection came back
+     */
+    public void closeRetiredPools() {
+        List<HttpConnectionPool> drained = new ArrayList<HttpConnectionPool>();
+        synchronized (this) {
+            for (Iterator<HttpConnectionPool> it = retiredPools().iterator(); it.hasNext();) {
+                HttpConnectionPool pool = it.next();
+                if (pool.isDrained()) {
+                    it.remove();
+                    drained.add(pool);
+                }
+            }
+        }
+        for (HttpConnectionPool pool : drained) {
+            pool.close();
+        }
     }
 
     /**
@@ -114,16 +290,29 @@ public class PluginConfiguration extends GlobalConfiguration {
         return FormValidation.ok();
     }
 
+    /**
+     * doCheckSshPort
+     */
+    public FormValidation doCheckSshPort(@QueryParameter String value) throws IOException, ServletException {
+        if (StringUtils.isEmpty(value)) {
+            return FormValidation.ok();
+        }
+        try {
+            int port = Integer.parseInt(value.trim());
+            return 0 < port && port < 65536 ? FormValidation.ok() : FormValidation.error("Port between 1 and 65535 expected");
+        } catch (NumberFormatException x) {
+            return FormValidation.error("Invalid port");
+        }
+    }
+
     /**
      * doTestConnection
      */
     public FormValidation doTestConnection(@QueryParameter("url") String url, @QueryParameter("user") String user, @QueryParameter("password") String password) throws IOException, ServletException {
+        // the unsaved values are tried with resources of their own, the running builds are not affected
+        PluginConfiguration probe = new PluginConfiguration(this).url(url).user(user).password(password);
         try {
-        	this.url = url;
-        	this.user = user;
-        	this.password = password;
-        	initialize();
-            SatelliteConnection connection = SatelliteConnection.from(this);
+            SatelliteConnection connection = SatelliteConnection.from(probe);
             connection.login();
             connection.logout();
             return FormValidation.ok("Success");
@@ -131,6 +320,8 @@ public class PluginConfiguration extends GlobalConfiguration {
         	StringWriter sw = new StringWriter();
         	x.printStackTrace(new PrintWriter(sw));
             return FormValidation.error(sw.toString());
+        } finally {
+            probe.dispose();
         }
     }
 
@@ -183,7 +374,25 @@ public class PluginConfiguration extends GlobalConfiguration {
         sshUser           = formData.getString("sshUser");
         sshPassword       = formData.getString("sshPassword");
         sshKeyPath        = formData.getString("sshKeyPath");
+        sshPort           = formData.optInt("sshPort", DEFAULT_SSH_PORT);
         rootAllowed       = formData.getBoolean("rootAllowed");
+        maxConnectionsPerRoute = formData.optInt("maxConnectionsPerRoute", DEFAULT_MAX_CONNECTIONS);
+        keepAlive         = formData.optInt("keepAlive", DEFAULT_KEEP_ALIVE);
+        idleTimeout       = formData.optInt("idleTimeout", DEFAULT_IDLE_TIMEOUT);
+        connectTimeout    = formData.optInt("connectTimeout", DEFAULT_CONNECT_TIMEOUT);
+        socketTimeout     = formData.optInt("socketTimeout", DEFAULT_SOCKET_TIMEOUT);
+        connectionRequestTimeout = formData.optInt("connectionRequestTimeout", DEFAULT_CONNECTION_REQUEST_TIMEOUT);
+        gzip              = formData.optBoolean("gzip", true);
+        gzipRequests      = formData.optBoolean("gzipRequests");
+        sha256Checksums   = formData.optBoolean("sha256Checksums");
+        agentUploads      = formData.optBoolean("agentUploads");
+        skipPresentPackages = formData.optBoolean("skipPresentPackages", true);
+        maxConcurrentCalls   = formData.optInt("maxConcurrentCalls", DEFAULT_MAX_CALLS);
+        maxConcurrentUploads = formData.optInt("maxConcurrentUploads", DEFAULT_MAX_UPLOADS);
+        incrementalSync   = formData.optBoolean("incrementalSync", true);
+        reconcileInterval = formData.optInt("reconcileInterval", DEFAULT_RECONCILE_INTERVAL);
+        listCacheTtl      = formData.optInt("listCacheTtl", DEFAULT_LIST_CACHE_TTL);
+        groupCacheTtl     = formData.optInt("groupCacheTtl", DEFAULT_GROUP_CACHE_TTL);
 //        timezone          = formData.getString("timezone");
         
         initialize();
@@ -240,6 +449,13 @@ public class PluginConfiguration extends GlobalConfiguration {
         return sshKeyPath;
     }
 
+    /**
+     * getSshPort, of the sshd on the systems for remote scripts
+     */
+    public int getSshPort() {
+        return sshPort < 1 || 65535 < sshPort ? DEFAULT_SSH_PORT : sshPort;
+    }
+
     public PluginConfiguration user(String user) {
         this.user = user;
         return this;
@@ -250,17 +466,292 @@ public class PluginConfiguration extends GlobalConfiguration {
         return this;
     }
 
+    public PluginConfiguration ssh(String sshUser, String sshPassword) {
+        this.sshUser = sshUser;
+        this.sshPassword = sshPassword;
+        return this;
+    }
+
+    public PluginConfiguration sshPort(int sshPort) {
+        this.sshPort = sshPort;
+        return this;
+    }
+
     public PluginConfiguration url(String url) {
         this.url = url;
         initialize();
         return this;
     }
 
-    public boolean isSSL() {
-        if (satelliteUrl != null) {
-            initialize();
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute < 1 ? DEFAULT_MAX_CONNECTIONS : maxConnectionsPerRoute;
+    }
+
+    public int getKeepAlive() {
+        return keepAlive < 1 ? DEFAULT_KEEP_ALIVE : keepAlive;
+    }
+
+    public int getIdleTimeout() {
+        return idleTimeout < 1 ? DEFAULT_IDLE_TIMEOUT : idleTimeout;
+    }
+
+    /**
+     * getConnectTimeout, seconds to establish a connection to Satellite
+     */
+    public int getConnectTimeout() {
+        return connectTimeout < 1 ? DEFAULT_CONNECT_TIMEOUT : connectTimeout;
+    }
+
+    /**
+     * getSocketTimeout, seconds without data from Satellite until a request fails
+     */
+    public int getSocketTimeout() {
+        return socketTimeout < 1 ? DEFAULT_SOCKET_TIMEOUT : socketTimeout;
+    }
+
+    /**
+     * getConnectionRequestTimeout, seconds to wait for a free connection of the pool
+     */
+    public int getConnectionRequestTimeout() {
+        return connectionRequestTimeout < 1 ? DEFAULT_CONNECTION_REQUEST_TIMEOUT : connectionRequestTimeout;
+    }
+
+    public PluginConfiguration timeouts(int connectTimeout, int socketTimeout, int connectionRequestTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.socketTimeout = socketTimeout;
+        this.connectionRequestTimeout = connectionRequestTimeout;
+        return this;
+    }
+
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    public boolean isGzipRequests() {
+        return gzipRequests;
+    }
+
+    public boolean isSha256Checksums() {
+        return sha256Checksums;
+    }
+
+    /**
+     * isSkipPresentPackages, rpms already on Satellite with the same checksum are only added to the channel
+     */
+    public boolean isSkipPresentPackages() {
+        return skipPresentPackages;
+    }
+
+    /**
+     * isAgentUploads, rpms in the workspace of an agent are posted to Satellite by the agent
+     */
+    public boolean isAgentUploads() {
+        return agentUploads;
+    }
+
+    /**
+     * getChecksumType, of the uploaded rpms
+     */
+    public String getChecksumType() {
+        return sha256Checksums ? RpmDigest.SHA256 : RpmDigest.MD5;
+    }
+
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls < 1 ? DEFAULT_MAX_CALLS : maxConcurrentCalls;
+    }
+
+    public int getMaxConcurrentUploads() {
+        return maxConcurrentUploads < 1 ? DEFAULT_MAX_UPLOADS : maxConcurrentUploads;
+    }
+
+    public boolean isIncrementalSync() {
+        return incrementalSync;
+    }
+
+    /**
+     * getReconcileInterval, minutes until the full package list of a channel is read again
+     */
+    public int getReconcileInterval() {
+        return reconcileInterval < 1 ? DEFAULT_RECONCILE_INTERVAL : reconcileInterval;
+    }
+
+    public PluginConfiguration skipPresentPackages(boolean skipPresentPackages) {
+        this.skipPresentPackages = skipPresentPackages;
+        return this;
+    }
+
+    public PluginConfiguration agentUploads(boolean agentUploads) {
+        this.agentUploads = agentUploads;
+        return this;
+    }
+
+    public PluginConfiguration gzip(boolean gzip) {
+        this.gzip = gzip;
+        return this;
+    }
+
+    public PluginConfiguration gzipRequests(boolean gzipRequests) {
+        this.gzipRequests = gzipRequests;
+        return this;
+    }
+
+    public PluginConfiguration sha256Checksums(boolean sha256Checksums) {
+        this.sha256Checksums = sha256Checksums;
+        return this;
+    }
+
+    public PluginConfiguration incrementalSync(boolean incrementalSync) {
+        this.incrementalSync = incrementalSync;
+        return this;
+    }
+
+    /**
+     * getChannelIndex, package lists of the channels shared by all builds, kept under JENKINS_HOME
+     */
+    public synchronized ChannelIndex getChannelIndex() {
+        if (channelIndex == null) {
+            Jenkins jenkins = Jenkins.getInstance();
+            ChannelStore store = jenkins == null ? null : new ChannelStore(new File(jenkins.getRootDir(), "satellite-index"), url);
+            channelIndex = new ChannelIndex(getReconcileInterval() * 60 * 1000L, store);
+        }
+        return channelIndex;
+    }
+
+    /**
+     * getPackageIndex, package ids by name, version, release, epoch and arch
+     */
+    public synchronized PackageIndex getPackageIndex() {
+        if (packageIndex == null) {
+            packageIndex = new PackageIndex();
+        }
+        return packageIndex;
+    }
+
+    /**
+     * getListCacheTtl, seconds the channels and groups of the list boxes are served without refresh
+     */
+    public int getListCacheTtl() {
+        return listCacheTtl < 1 ? DEFAULT_LIST_CACHE_TTL : listCacheTtl;
+    }
+
+    /**
+     * getListCache, channels and groups for the list boxes of the job configuration
+     */
+    public synchronized ListCache getListCache() {
+        if (listCache == null) {
+            listCache = new ListCache(this, getListCacheTtl() * 1000L);
+        }
+        return listCache;
+    }
+
+    /**
+     * getGroupCacheTtl, seconds the systems of a group are used for remote scripts without reading them again
+     */
+    public int getGroupCacheTtl() {
+        return groupCacheTtl < 1 ? DEFAULT_GROUP_CACHE_TTL : groupCacheTtl;
+    }
+
+    /**
+     * getGroupCache, systems of the groups for remote scripts
+     */
+    public synchronized GroupCache getGroupCache() {
+        if (groupCache == null) {
+            groupCache = new GroupCache(getGroupCacheTtl() * 1000L);
+        }
+        return groupCache;
+    }
+
+    /**
+     * getConfigCache, contents of the config files revalidated by their modification date
+     */
+    public synchronized ConfigCache getConfigCache() {
+        if (configCache == null) {
+            configCache = new ConfigCache();
+        }
+        return configCache;
+    }
+
+    /**
+     * getGovernor, limits the concurrent Satellite requests of all builds
+     */
+    public synchronized Governor getGovernor() {
+        if (governor == null) {
+            governor = new Governor(getMaxConcurrentCalls(), getMaxConcurrentUploads());
+        }
+        return governor;
+    }
+
+    /**
+     * getMetrics, kept across configuration changes
+     */
+    public synchronized SatelliteMetrics getMetrics() {
+        if (metrics == null) {
+            metrics = new SatelliteMetrics();
+        }
+        return metrics;
+    }
+
+    public synchronized HttpConnectionPool getConnectionPool() {
+        if (connectionPool == null) {
+            connectionPool = new HttpConnectionPool(this);
+        }
+        return connectionPool;
+    }
+
+    /**
+     * getExecutor, bounded pool for asynchronous Satellite operations
+     */
+    public synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = threadPool("satellite-async-", ASYNC_THREADS);
+        }
+        return executor;
+    }
+
+    /**
+     * getUploadExecutor, rpm uploads of the push pipeline, one thread per upload permit of the governor
+     */
+    public synchronized ExecutorService getUploadExecutor() {
+        if (uploadExecutor == null) {
+            uploadExecutor = threadPool("satellite-upload-", getMaxConcurrentUploads());
+        }
+        return uploadExecutor;
+    }
+
+    private static ThreadPoolExecutor threadPool(final String name, int threads) {
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        threadPool.allowCoreThreadTimeOut(true);
+        return threadPool;
+    }
+
+    /**
+     * circuitBreaker, replaces the circuit breaker, e.g. by one with a shorter open period
+     */
+    synchronized PluginConfiguration circuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        return this;
+    }
+
+    public synchronized CircuitBreaker getCircuitBreaker() {
+        if (circuitBreaker == null) {
+            circuitBreaker = new CircuitBreaker();
+        }
+        return circuitBreaker;
+    }
+
+    public synchronized SessionPool getSessionPool() {
+        if (sessionPool == null) {
+            sessionPool = new SessionPool(this);
         }
-        return satelliteUrl.getProtocol().equals("https");
+        return sessionPool;
     }
 
 }
@@ -0,0 +1,201 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import hudson.FilePath;
+import hudson.model.BuildListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+/**
+ * PushPipeline, pushes rpms with overlapping stages.
+ * <p>
+ * Up to <code>concurrency</code> files are uploaded at once on the upload executor of the {@link PluginConfiguration},
+ * each with its own session, and the package id is resolved right after the upload. The build thread adds the resolved
+ * packages to the channel in batches while the remaining files are still uploading. The {@link Governor} still
+ * limits the uploads of all builds, the upload executor has no more threads than uploads are allowed, so waiting
+ * uploads never block other asynchronous work. Files already on Satellite are only added to the channel, see
+ * {@link SatelliteConnection#present}.
+ *
+ * @author ds
+ */
+public class PushPipeline {
+
+    private static final Logger LOGGER = Logger.getLogger(PushPipeline.class.getName());
+
+    private final PluginConfiguration configuration;
+    private final int concurrency;
+    private BuildListener listener;
+
+    public PushPipeline(PluginConfiguration configuration, int concurrency) {
+        this.configuration = configuration;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    public static PushPipeline create(int concurrency) {
+        PluginConfiguration configuration = (PluginConfiguration) Jenkins.getInstance().getDescriptorOrDie(PluginConfiguration.class);
+        return new PushPipeline(configuration, concurrency);
+    }
+
+    public PushPipeline logger(BuildListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * push, the result has the order of the files and contains <code>null</code> for each failed file
+     */
+    public List<NVR> push(List<FilePath> filePaths, String channel) throws InterruptedException {
+        AsyncSatelliteConnection async = AsyncSatelliteConnection.from(configuration);
+        SatelliteConnection connection = SatelliteConnection.from(configuration);
+        if (listener != null) {
+            async.logger(listener);
+            connection.logger(listener);
+        }
+        connection.login();
+
+        CompletionService<Pushed> completion = new ExecutorCompletionService<Pushed>(configuration.getUploadExecutor());
+        List<Future<Pushed>> inFlight = new ArrayList<Future<Pushed>>();
+        NVR[] result = new NVR[filePaths.size()];
+        List<Integer> uploads = new ArrayList<Integer>(filePaths.size());
+        RpmHeader[] headers = new RpmHeader[filePaths.size()];
+        int next = 0;
+        int added = 0;
+        long start = System.currentTimeMillis();
+        try {
+            Map<Integer, SatelliteConnection.Present> present = connection.present(filePaths, headers);
+            for (int i = 0; i < filePaths.size(); i++) {
+                if (!present.containsKey(i)) {
+                    uploads.add(i);
+                }
+            }
+            if (!present.isEmpty()) {
+                List<Integer> ids = new ArrayList<Integer>(present.size());
+                List<NVR> nvrs = new ArrayList<NVR>(present.size());
+                for (SatelliteConnection.Present file : present.values()) {
+                    ids.add(file.id);
+                    nvrs.add(file.nvr);
+                }
+                if (connection.addPackages(channel, ids, nvrs)) {
+                    for (Map.Entry<Integer, SatelliteConnection.Present> file : present.entrySet()) {
+                        result[file.getKey()] = file.getValue().nvr;
+                    }
+                    added += present.size();
+                } else {
+                    connection.error("adding " + present.size() + " packages to '" + channel + "' failed");
+                }
+            }
+
+            while (inFlight.size() < concurrency && next < uploads.size()) {
+                int position = uploads.get(next++);
+                inFlight.add(completion.submit(async.callable(new Upload(position, filePaths.get(position), headers[position]))));
+            }
+            while (!inFlight.isEmpty()) {
+                List<Pushed> ready = new ArrayList<Pushed>();
+                Future<Pushed> done = completion.take();
+                while (done != null) {
+                    inFlight.remove(done);
+                    Pushed pushed = pushed(done);
+                    if (pushed != null) {
+                        ready.add(pushed);
+                    }
+                    done = completion.poll();
+                }
+                // keep the uploads busy while the channel is updated
+                while (inFlight.size() < concurrency && next < uploads.size()) {
+                    int position = uploads.get(next++);
+                    inFlight.add(completion.submit(async.callable(new Upload(position, filePaths.get(position), headers[position]))));
+                }
+                if (ready.isEmpty()) {
+                    continue;
+                }
+                List<Integer> ids = new ArrayList<Integer>(ready.size());
+                List<NVR> nvrs = new ArrayList<NVR>(ready.size());
+                for (Pushed pushed : ready) {
+                    ids.add(pushed.id);
+                    nvrs.add(pushed.nvr);
+                }
+                if (connection.addPackages(channel, ids, nvrs)) {
+                    for (Pushed pushed : ready) {
+                        result[pushed.index] = pushed.nvr;
+                    }
+                    added += ready.size();
+                } else {
+                    connection.error("adding " + ready.size() + " packages to '" + channel + "' failed");
+                }
+            }
+        } finally {
+            for (Future<Pushed> future : inFlight) {
+                future.cancel(true);
+            }
+            connection.logout();
+        }
+        connection.info("push of " + added + " of " + filePaths.size() + " packages to '" + channel + "' in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return Arrays.asList(result);
+    }
+
+    /**
+     * pushed, the result of a finished upload, null if it failed
+     */
+    private Pushed pushed(Future<Pushed> done) throws InterruptedException {
+        try {
+            return done.get();
+        } catch (ExecutionException x) {
+            if (listener != null) {
+                listener.getLogger().println("[ERROR] push failed: " + x.getCause().getMessage());
+            } else {
+                LOGGER.log(Level.WARNING, "push failed", x.getCause());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Upload, uploads a file and resolves its package id
+     */
+    private static class Upload implements AsyncSatelliteConnection.Operation<Pushed> {
+        private final int index;
+        private final FilePath filePath;
+        private final RpmHeader header;
+
+        Upload(int index, FilePath filePath, RpmHeader header) {
+            this.index = index;
+            this.filePath = filePath;
+            this.header = header;
+        }
+
+        public Pushed execute(SatelliteConnection connection) {
+            NVR nvr = connection.upload(filePath, header);
+            if (nvr == null) {
+                throw new IllegalStateException("upload of " + filePath.getName() + " failed");
+            }
+            return new Pushed(index, nvr, connection.packageId(nvr));
+        }
+    }
+
+    /**
+     * Pushed
+     */
+    private static class Pushed {
+        private final int index;
+        private final NVR nvr;
+        private final int id;
+
+        Pushed(int index, NVR nvr, int id) {
+            this.index = index;
+            this.nvr = nvr;
+            this.id = id;
+        }
+    }
+
+}
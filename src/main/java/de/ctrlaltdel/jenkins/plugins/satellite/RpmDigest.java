@@ -0,0 +1,110 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * RpmDigest, the checksum of an rpm computed where the file is, on the agent or the master.
+ * <p>
+ * Only the hex string crosses the remoting channel. The checksum is cached in the JVM of the agent by path,
+ * modification time and size, so pushing the same artifact again, e.g. to several channels, does not read it again.
+ *
+ * @author ds
+ */
+public class RpmDigest implements FilePath.FileCallable<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String MD5 = "md5";
+    public static final String SHA256 = "sha256";
+
+    static final int MAX_CACHED = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** per JVM, so per agent */
+    private static final Map<String, Cached> CACHE = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            return MAX_CACHED < size();
+        }
+    };
+
+    private final String type;
+
+    /**
+     * RpmDigest, type is a checksum type as Satellite names it, like {@link #MD5} or {@link #SHA256}
+     */
+    public RpmDigest(String type) {
+        this.type = type;
+    }
+
+    public String invoke(File file, VirtualChannel channel) throws IOException, InterruptedException {
+        String key = type + ':' + file.getAbsolutePath();
+        long modified = file.lastModified();
+        long length = file.length();
+        synchronized (CACHE) {
+            Cached cached = CACHE.get(key);
+            if (cached != null && cached.modified == modified && cached.length == length) {
+                return cached.digest;
+            }
+        }
+        String digest = digest(file);
+        synchronized (CACHE) {
+            CACHE.put(key, new Cached(modified, length, digest));
+        }
+        return digest;
+    }
+
+    /**
+     * digest, reads the file once
+     */
+    private String digest(File file) throws IOException {
+        MessageDigest messageDigest;
+        try {
+            // sha1, sha256, sha384, sha512 in Satellite are SHA-1, ... in Java
+            messageDigest = MessageDigest.getInstance(type.startsWith("sha") ? "SHA-" + type.substring(3) : "MD5");
+        } catch (NoSuchAlgorithmException x) {
+            throw new IllegalStateException(x);
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return Hex.encodeHexString(messageDigest.digest());
+    }
+
+    /**
+     * Cached
+     */
+    private static class Cached {
+        private final long modified;
+        private final long length;
+        private final String digest;
+
+        Cached(long modified, long length, String digest) {
+            this.modified = modified;
+            this.length = length;
+            this.digest = digest;
+        }
+    }
+
+}
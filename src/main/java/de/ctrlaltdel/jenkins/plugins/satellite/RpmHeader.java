@@ -0,0 +1,233 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * RpmHeader, name, epoch, version, release and arch of an rpm read from its header.
+ * <p>
+ * Only the lead, the signature and the main header are memory mapped, the payload is never read:
+ * <pre>
+ * lead (96 bytes), signature header padded to 8 bytes, main header, payload
+ * header: magic (3 bytes), version, reserved (4 bytes), int entries, int size, (int tag, type, offset, count)*, store
+ * </pre>
+ * {@link Reader} reads it on the node holding the file, together with the checksum for the upload.
+ *
+ * @author ds
+ */
+public class RpmHeader implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int LEAD_SIZE = 96;
+    static final int INTRO_SIZE = 16;
+    /** sanity limit of a header, real headers have some 100 KB */
+    static final int MAX_HEADER_SIZE = 32 * 1024 * 1024;
+
+    static final int TAG_NAME = 1000;
+    static final int TAG_VERSION = 1001;
+    static final int TAG_RELEASE = 1002;
+    static final int TAG_EPOCH = 1003;
+    static final int TAG_ARCH = 1022;
+
+    private static final int TYPE_INT32 = 4;
+    private static final int TYPE_STRING = 6;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String name;
+    private final String epoch;
+    private final String version;
+    private final String release;
+    private final String arch;
+    private String checksum;
+    private long length;
+
+    RpmHeader(String name, String epoch, String version, String release, String arch) {
+        this.name = name;
+        this.epoch = epoch;
+        this.version = version;
+        this.release = release;
+        this.arch = arch;
+    }
+
+    /**
+     * read, the header of the rpm file
+     */
+    public static RpmHeader read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long fileSize = channel.size();
+            ByteBuffer lead = map(channel, fileSize, 0, LEAD_SIZE + INTRO_SIZE);
+            if (lead.getInt(0) != 0xedabeedb) {
+                throw new IOException(file.getName() + " is not an rpm");
+            }
+            // the signature follows the lead, the main header the signature padded to 8 bytes
+            long header = LEAD_SIZE + align(headerSize(lead, LEAD_SIZE, file));
+            ByteBuffer intro = map(channel, fileSize, header, INTRO_SIZE);
+            ByteBuffer main = map(channel, fileSize, header, headerSize(intro, 0, file));
+            return parse(main, file);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * headerSize, the size of the header structure starting at the position of the buffer
+     */
+    private static int headerSize(ByteBuffer buffer, int position, File file) throws IOException {
+        if ((buffer.getInt(position) >>> 8) != 0x8eade8) {
+            throw new IOException(file.getName() + ": bad header magic");
+        }
+        long entries = buffer.getInt(position + 8) & 0xffffffffL;
+        long size = buffer.getInt(position + 12) & 0xffffffffL;
+        long headerSize = INTRO_SIZE + entries * 16 + size;
+        if (MAX_HEADER_SIZE < headerSize) {
+            throw new IOException(file.getName() + ": header of " + headerSize + " bytes");
+        }
+        return (int) headerSize;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    private static ByteBuffer map(FileChannel channel, long fileSize, long position, int size) throws IOException {
+        if (fileSize < position + size) {
+            throw new IOException("truncated rpm");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /**
+     * parse, the tags of the main header
+     */
+    private static RpmHeader parse(ByteBuffer header, File file) throws IOException {
+        int entries = header.getInt(8);
+        int store = INTRO_SIZE + entries * 16;
+        String name = null;
+        String epoch = "";
+        String version = null;
+        String release = null;
+        String arch = null;
+        for (int i = 0; i < entries; i++) {
+            int entry = INTRO_SIZE + i * 16;
+            int tag = header.getInt(entry);
+            int type = header.getInt(entry + 4);
+            int offset = store + header.getInt(entry + 8);
+            if (offset < store || header.limit() <= offset) {
+                throw new IOException(file.getName() + ": bad offset of tag " + tag);
+            }
+            if (type == TYPE_INT32 && tag == TAG_EPOCH) {
+                epoch = String.valueOf(header.getInt(offset));
+            } else if (type == TYPE_STRING) {
+                switch (tag) {
+                case TAG_NAME:
+                    name = string(header, offset);
+                    break;
+                case TAG_VERSION:
+                    version = string(header, offset);
+                    break;
+                case TAG_RELEASE:
+                    release = string(header, offset);
+                    break;
+                case TAG_ARCH:
+                    arch = string(header, offset);
+                    break;
+                default:
+                    break;
+                }
+            }
+        }
+        if (name == null || version == null || release == null || arch == null) {
+            throw new IOException(file.getName() + ": name, version, release or arch missing in the header");
+        }
+        return new RpmHeader(name, epoch, version, release, arch);
+    }
+
+    private static String string(ByteBuffer header, int offset) throws IOException {
+        int end = offset;
+        while (end < header.limit() && header.get(end) != 0) {
+            end++;
+        }
+        if (end == header.limit()) {
+            throw new IOException("unterminated string in the header");
+        }
+        byte[] bytes = new byte[end - offset];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = header.get(offset + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * toNVR, with epoch and arch
+     */
+    public NVR toNVR() {
+        return new NVR(name, version, release, epoch, arch);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getEpoch() {
+        return epoch;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getRelease() {
+        return release;
+    }
+
+    public String getArch() {
+        return arch;
+    }
+
+    /**
+     * getChecksum, of the file, set by the {@link Reader}
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * getLength, of the file, set by the {@link Reader}
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Reader, the header, the checksum and the length of the file in one call to the node holding it
+     */
+    public static class Reader implements FilePath.FileCallable<RpmHeader> {
+        private static final long serialVersionUID = 1L;
+
+        private final String checksumType;
+
+        public Reader(String checksumType) {
+            this.checksumType = checksumType;
+        }
+
+        public RpmHeader invoke(File file, VirtualChannel channel) throws IOException, InterruptedException {
+            RpmHeader header = read(file);
+            header.checksum = new RpmDigest(checksumType).invoke(file, channel);
+            header.length = file.length();
+            return header;
+        }
+    }
+
+}
@@ -4,24 +4,21 @@ import hudson.FilePath;
 import hudson.model.BuildListener;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
-import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSession;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
+import javax.xml.stream.XMLStreamException;
 
 import jenkins.model.Jenkins;
 
@@ -30,14 +27,14 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.ssl.SSLSocketFactory;
-import org.apache.http.conn.ssl.TrustStrategy;
+import org.apache.http.entity.ContentProducer;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.EntityTemplate;
 import org.apache.http.entity.InputStreamEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.xmlrpc.client.XmlRpcClient;
-import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.http.util.EntityUtils;
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.client.XmlRpcClientException;
+import org.apache.xmlrpc.client.XmlRpcHttpTransportException;
 
 /**
  * SatelliteConnection
@@ -46,13 +43,17 @@ import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
  */
 public class SatelliteConnection {
 
-    public static final String ATTR_PKG_NAME = "packageName"; 
+    static final int MAX_ATTEMPTS = 4;
+    static final long BASE_BACKOFF_MILLIS = 500L;
+    static final long MAX_BACKOFF_MILLIS = 8000L;
+    static final long WAIT_REPORT_MILLIS = 1000L;
     
     private final PluginConfiguration configuration;
-    private String auth;
-    private XmlRpcClient client;
+    private SessionPool.Session session;
     private PrintStream logger;
+    private BuildListener job;
     private boolean oneCall;
+    private long queueWaitMillis;
 
     private SatelliteConnection(PluginConfiguration configuration) {
         this.configuration = configuration;
@@ -80,39 +81,31 @@ public class SatelliteConnection {
 
     public SatelliteConnection logger(BuildListener listener) {
         this.logger = listener.getLogger();
+        // the listener tells the builds apart in the queues of the governor
+        this.job = listener;
         return this;
     }
 
     /**
-     * login
+     * login, borrows an authenticated session from the pool
      */
     public SatelliteConnection login() {
         if (logger == null) {
             logger = new PrintStream(System.out);
         }
-
-        XmlRpcClientConfigImpl config = new XmlRpcClientConfigImpl();
-        config.setServerURL(configuration.getRpcUrl());
-        config.setEnabledForExtensions(true);
-
-        if (configuration.isSSL()) {
-            initializeSSLContext();
-        }
-
-        client = new XmlRpcClient();
-        client.setConfig(config);
-
-        auth = call("auth.login", configuration.getUser(), configuration.getPassword());
-
+        session = configuration.getSessionPool().borrow();
         return this;
     }
 
     /**
-     * logout
+     * logout, hands the session back to the pool
      */
     public void logout() {
         try {
-            call("auth.logout");
+            if (WAIT_REPORT_MILLIS <= queueWaitMillis) {
+                info("waited " + queueWaitMillis + " ms in total for free Satellite slots");
+            }
+            configuration.getSessionPool().release(session);
         } finally {
             reset();
         }
@@ -122,17 +115,65 @@ public class SatelliteConnection {
      * checkAuth
      */
     public SatelliteConnection checkAuth() {
-        return auth == null ? login() : this;
+        return session == null ? login() : this;
     }
 
     /**
-     * addPackages
+     * addPackage
      */
     public boolean addPackage(String channel, Integer id) {
-        Integer result = call("channel.software.addPackages", channel, Arrays.asList(id));
+        return addPackages(channel, Arrays.asList(id));
+    }
+
+    /**
+     * addPackages
+     */
+    public boolean addPackages(String channel, List<Integer> ids) {
+        Integer result = call("channel.software.addPackages", channel, ids);
         return result == 1;
     }
 
+    /**
+     * addPackages, the ids with the nvrs they were resolved for. Ids of the {@link PackageIndex} are not checked
+     * against Satellite, if one was deleted by others meanwhile Satellite rejects the call. The ids are then looked
+     * up again and the call is retried once.
+     */
+    boolean addPackages(String channel, List<Integer> ids, List<NVR> nvrs) {
+        try {
+            return addPackages(channel, ids);
+        } catch (IllegalStateException x) {
+            if (!isFault(x)) {
+                throw x;
+            }
+            warn("adding packages to '" + channel + "' was rejected (" + x.getCause().getMessage() + "), looking up the package ids again");
+        }
+        configuration.getPackageIndex().removed(ids);
+        Multicall multicall = multicall();
+        for (NVR nvr : nvrs) {
+            multicall.add("packages.findByNvrea", nvr.getName(), nvr.getVersion(), nvr.getRelease(), epoch(nvr), arch(nvr));
+        }
+        List<Multicall.Result> lookups = multicall.flush();
+        List<Integer> resolved = new ArrayList<Integer>(nvrs.size());
+        for (int i = 0; i < lookups.size(); i++) {
+            NVR nvr = nvrs.get(i);
+            Multicall.Result found = lookups.get(i);
+            if (found.isFault()) {
+                throw new IllegalStateException("lookup of " + nvr + " failed: " + found.getFaultString());
+            }
+            int id = indexed(nvr, found.<Map<String, Object>[]> getValue());
+            info(nvr + " package-id: " + id);
+            resolved.add(id);
+        }
+        return addPackages(channel, resolved);
+    }
+
+    /**
+     * multicall, batches calls into <code>system.multicall</code> requests
+     */
+    public Multicall multicall() {
+        return new Multicall(this);
+    }
+
     /**
      * listChannels
      */
@@ -172,18 +213,53 @@ public class SatelliteConnection {
     }
 
     /**
-     * listPackages
+     * listPackages, from the {@link ChannelIndex} with incremental sync
+     */
+    public List<PackageRecord> listPackages(String channel) {
+        if (configuration.isIncrementalSync()) {
+            return configuration.getChannelIndex().packages(this, channel);
+        }
+        final List<PackageRecord> packages = new ArrayList<PackageRecord>();
+        streamPackages(channel, null, new PackageRecord.Handler() {
+            public void handle(PackageRecord record) {
+                packages.add(record);
+            }
+        });
+        return packages;
+    }
+
+    /**
+     * forEachPackage, hands the packages of the channel to the handler, without incremental sync they are
+     * streamed without materializing the list
      */
-    public List<Map<String, Object>> listPackages(String channel) {
-        Map<String, Object>[] packages = call("channel.software.listAllPackages", channel);
-        if (packages == null) {
-            return Collections.EMPTY_LIST;
+    public int forEachPackage(String channel, PackageRecord.Handler handler) {
+        if (!configuration.isIncrementalSync()) {
+            return streamPackages(channel, null, handler);
         }
-        for (Map<String, Object> map : packages) {
-            String pkgName = (String) map.get("name") + '-' + map.get("version") + '-' + map.get("release");
-            map.put("packageName", pkgName);
+        List<PackageRecord> packages = configuration.getChannelIndex().packages(this, channel);
+        for (PackageRecord record : packages) {
+            handler.handle(record);
+        }
+        return packages.size();
+    }
+
+    /**
+     * streamPackages, all packages of the channel or only those added since the date
+     */
+    int streamPackages(String channel, Date since, final PackageRecord.Handler handler) {
+        final PackageRecord.Decoder decoder = new PackageRecord.Decoder();
+        final PackageIndex index = configuration.getPackageIndex();
+        XmlRpcStreaming.Handler decoding = new XmlRpcStreaming.Handler() {
+            public void struct(Map<String, Object> map) {
+                PackageRecord record = decoder.decode(map);
+                index.add(record);
+                handler.handle(record);
+            }
+        };
+        if (since == null) {
+            return stream("channel.software.listAllPackages", decoding, channel);
         }
-        return Arrays.asList(packages);
+        return stream("channel.software.listAllPackages", decoding, channel, since);
     }
     
     /**
@@ -194,15 +270,20 @@ public class SatelliteConnection {
         if (result != 1) {
             return false;
         }
+        configuration.getChannelIndex().removed(channel, pkgIds);
+        configuration.getPackageIndex().removed(pkgIds);
         info(pkgIds.size() + " packages removed from channel '" + channel + "'");
+        Multicall multicall = multicall();
         for (Integer id : pkgIds) {
-            try {
-                int removeResult = call("packages.removePackage", id);
-                if (removeResult != 1) {
-                    error("deletion of package " + id + "failed");
-                }
-            } catch (Exception x) {
-                error("deletion of package " + id + " failed: " + x.getMessage());
+            multicall.add("packages.removePackage", id);
+        }
+        List<Multicall.Result> results = multicall.flush();
+        for (int i = 0; i < results.size(); i++) {
+            Multicall.Result removeResult = results.get(i);
+            if (removeResult.isFault()) {
+                error("deletion of package " + pkgIds.get(i) + " failed: " + removeResult.getFaultString());
+            } else if (!Integer.valueOf(1).equals(removeResult.getValue())) {
+                error("deletion of package " + pkgIds.get(i) + " failed");
             }
         }
         return result == 1;
@@ -227,23 +308,53 @@ public class SatelliteConnection {
     }
 
     /**
-     * readConfig
+     * readConfig, the contents are only transferred if the file was modified since the last read or update
      */
     public String readConfig(String configChannel, String configPath) {
-        Map<String, Object>[] fileInfos = call("configchannel.lookupFileInfo", configChannel, Arrays.asList(configPath));
-        Map<String, Object> revision = fileInfos[0];
+        boolean wasOneCall = oneCall;
+        oneCall = false;
+        Map<String, Object> revision;
+        try {
+            revision = lookupFileInfo(configChannel, configPath);
+        } finally {
+            if (wasOneCall) {
+                logout();
+            }
+        }
         String contents = (String) revision.get("contents");
         return ((Boolean) revision.get("contents_enc64")) ? new String(Base64.decodeBase64(contents)) : contents;
     }
 
+    /**
+     * lookupFileInfo, the latest revision of the file from the {@link ConfigCache}, revalidated with the
+     * <code>last_modified</code> of <code>configchannel.listFiles</code>
+     */
+    private Map<String, Object> lookupFileInfo(String configChannel, String configPath) {
+        Date modified = null;
+        Map<String, Object>[] files = call("configchannel.listFiles", configChannel);
+        for (Map<String, Object> file : files) {
+            if (configPath.equals(file.get("path"))) {
+                modified = (Date) file.get("last_modified");
+                break;
+            }
+        }
+        ConfigCache cache = configuration.getConfigCache();
+        Map<String, Object> revision = cache.get(configChannel, configPath, modified);
+        if (revision == null) {
+            Map<String, Object>[] fileInfos = call("configchannel.lookupFileInfo", configChannel, Arrays.asList(configPath));
+            revision = fileInfos[0];
+            cache.put(configChannel, configPath, modified, revision);
+        }
+        return revision;
+    }
+
     /**
      * updateConfig
      */
     public boolean updateConfig(String configChannel, String configPath, String contents) {
         boolean wasOneCall = oneCall;
         oneCall = false;
-        Map<String, Object>[] fileInfos = call("configchannel.lookupFileInfo", configChannel, Arrays.asList(configPath));
-        Map<String, Object> revision = fileInfos[0];
+        Map<String, Object> revision = lookupFileInfo(configChannel, configPath);
         Boolean encoded = (Boolean) revision.get("contents_enc64");
         revision.put("contents", encoded ? Base64.encodeBase64String(contents.getBytes()) : contents);
         revision.put("revision", ((Integer) revision.get("revision")) + 1);
@@ -256,6 +367,9 @@ public class SatelliteConnection {
         Map<String, Object> newRevision = call("configchannel.createOrUpdatePath", configChannel, configPath, Boolean.FALSE, revision);
         boolean changed = revision.get("revision").equals(newRevision.get("revision"));
         if (changed) {
+            newRevision.put("contents", revision.get("contents"));
+            newRevision.put("contents_enc64", encoded);
+            configuration.getConfigCache().put(configChannel, configPath, (Date) newRevision.get("modified"), newRevision);
             info("contents updated, new revision=" + newRevision.get("revision"));
 
             Integer deploy = call("configchannel.deployAllSystems", configChannel);
@@ -277,16 +391,22 @@ public class SatelliteConnection {
         boolean wasOneCall = oneCall;
         oneCall = false;
 
-        Map<String, Object>[] groups = call("systemgroup.listSystems", group);
         List<Integer> systemIds = new ArrayList<Integer>();
         StringBuilder sb = new StringBuilder("schedule script for ");
-        for (Map<String, Object> system : groups) {
-            systemIds.add((Integer) system.get("id"));
-            sb.append(system.get("hostname")).append(' ');
+        for (GroupCache.Member member : configuration.getGroupCache().members(this, group)) {
+            systemIds.add(member.getId());
+            sb.append(member.getHostname()).append(' ');
         }
         long startTime = new Date().getTime(); // + 60 * 1000;
         String runScript = script.startsWith("#!/") ? script : "#!/bin/sh\n" + script;
-        Integer scriptId = call("system.scheduleScriptRun", systemIds, user, user, new Integer(300), runScript, new Date(startTime));
+        Integer scriptId;
+        try {
+            scriptId = call("system.scheduleScriptRun", systemIds, user, user, new Integer(300), runScript, new Date(startTime));
+        } catch (IllegalStateException x) {
+            // a system may have been deleted since the group was read
+            configuration.getGroupCache().invalidate(group);
+            throw x;
+        }
         sb.append(", script-id=").append(scriptId);
         info(sb.toString());
 
@@ -296,131 +416,356 @@ public class SatelliteConnection {
     }
 
     /**
-     * listHosts
+     * listHosts, the host names of the group from the {@link GroupCache}
      */
     public List<String> listHosts(String group) {
-        Map<String, Object>[] systems = call("systemgroup.listSystems", group);
-        List<String> hosts = new ArrayList<String>(systems.length);
-        for (Map<String, Object> system : systems) {
-            hosts.add((String) system.get("hostname"));
+        List<GroupCache.Member> members = configuration.getGroupCache().members(this, group);
+        List<String> hosts = new ArrayList<String>(members.size());
+        for (GroupCache.Member member : members) {
+            hosts.add(member.getHostname());
+        }
+        if (oneCall && session != null) {
+            logout();
         }
         return hosts;
     }
+
+    /**
+     * fetchMembers, the systems of the group read from Satellite
+     */
+    List<GroupCache.Member> fetchMembers(String group) {
+        boolean wasOneCall = oneCall;
+        oneCall = false;
+        try {
+            Map<String, Object>[] systems = call("systemgroup.listSystems", group);
+            List<GroupCache.Member> members = new ArrayList<GroupCache.Member>(systems.length);
+            for (Map<String, Object> system : systems) {
+                members.add(new GroupCache.Member((Integer) system.get("id"), (String) system.get("hostname")));
+            }
+            return members;
+        } finally {
+            oneCall = wasOneCall;
+        }
+    }
     
     /**
      * push
      */
     public NVR push(FilePath filePath, String channel) {
+        return pushAll(Collections.singletonList(filePath), channel).get(0);
+    }
 
-        NVR nvr = new NVR(filePath.getName());
-        try {
-            initializeSSLContext();
-
-            HttpPost httpPost = new HttpPost(configuration.getUrl() + "/PACKAGE-PUSH");
-            httpPost.setHeader("X-RHN-Upload-Auth-Session", auth);
-            httpPost.setHeader("X-RHN-Upload-File-Checksum-Type", "md5");
-            httpPost.setHeader("X-RHN-Upload-Force", "0");
-            httpPost.setHeader("X-RHN-Upload-Package-Arch", "noarch");
-            httpPost.setHeader("X-RHN-Upload-Package-Name", "sample-app");
-            httpPost.setHeader("X-RHN-Upload-Package-Release", "1");
-            httpPost.setHeader("X-RHN-Upload-Package-Version", "1.0");
-            httpPost.setHeader("X-RHN-Upload-Packaging", "rpm");
-            httpPost.setHeader("X-RHN-Upload-File-Checksum", filePath.digest());
-
-            httpPost.setEntity(new InputStreamEntity(filePath.read(), filePath.length(), ContentType.create("application/x-rpm")));
-
-            info("upload " + filePath);
-            
-            DefaultHttpClient httpClient = new DefaultHttpClient();
-            if (configuration.isSSL()) {
-                configureHttps(httpClient);
-            }
-            HttpResponse response = httpClient.execute(httpPost);
-            if (response.getStatusLine().getStatusCode() == 200) {
-                info("upload was successful");
+    /**
+     * pushAll, uploads the files and adds them to the channel with batched lookups,
+     * the result contains <code>null</code> for each failed upload
+     */
+    public List<NVR> pushAll(List<FilePath> filePaths, String channel) {
+        List<NVR> result = new ArrayList<NVR>(filePaths.size());
+        PackageIndex index = configuration.getPackageIndex();
+        List<Integer> ids = new ArrayList<Integer>(filePaths.size());
+        List<NVR> nvrs = new ArrayList<NVR>(filePaths.size());
+        RpmHeader[] headers = new RpmHeader[filePaths.size()];
+        Map<Integer, Present> present = present(filePaths, headers);
+        List<NVR> unknown = new ArrayList<NVR>();
+        Multicall multicall = multicall();
+        for (int i = 0; i < filePaths.size(); i++) {
+            FilePath filePath = filePaths.get(i);
+            if (present.containsKey(i)) {
+                result.add(present.get(i).nvr);
+                ids.add(present.get(i).id);
+                nvrs.add(present.get(i).nvr);
+                continue;
+            }
+            NVR nvr = upload(filePath, headers[i]);
+            result.add(nvr);
+            if (nvr == null) {
+                continue;
+            }
+            Integer id = index.find(nvr);
+            if (id != null) {
+                info(nvr + " package-id: " + id);
+                ids.add(id);
+                nvrs.add(nvr);
+                continue;
+            }
+            unknown.add(nvr);
+            multicall.add("packages.findByNvrea", nvr.getName(), nvr.getVersion(), nvr.getRelease(), epoch(nvr), arch(nvr));
+        }
+        if (ids.isEmpty() && multicall.size() == 0) {
+            return result;
+        }
+
+        List<Multicall.Result> lookups = multicall.size() == 0 ? Collections.<Multicall.Result> emptyList() : multicall.flush();
+        for (int i = 0; i < lookups.size(); i++) {
+            NVR nvr = unknown.get(i);
+            Multicall.Result found = lookups.get(i);
+            if (found.isFault()) {
+                throw new IllegalStateException("lookup of " + nvr + " failed: " + found.getFaultString());
+            }
+            int id = indexed(nvr, found.<Map<String, Object>[]> getValue());
+            info(nvr + " package-id: " + id);
+            ids.add(id);
+            nvrs.add(nvr);
+        }
+
+        boolean added = addPackages(channel, ids, nvrs);
+        info("push of " + ids.size() + " packages to '" + channel + "' was " + (added ? "successful " : "not successful"));
+
+        return result;
+    }
+
+    /**
+     * present, the packages already on Satellite with the same checksum by their position in the list, they are only
+     * added to the channel. Candidates are found by the name, version, release, epoch and arch of the rpm header, their
+     * checksum is compared with the checksum of the file in the type Satellite has stored. The headers read are
+     * kept in <code>headers</code> for the upload of the other files.
+     */
+    Map<Integer, Present> present(List<FilePath> filePaths, RpmHeader[] headers) {
+        Map<Integer, Present> present = new LinkedHashMap<Integer, Present>();
+        if (!configuration.isSkipPresentPackages() || filePaths.isEmpty()) {
+            return present;
+        }
+        PackageIndex index = configuration.getPackageIndex();
+        String checksumType = configuration.getChecksumType();
+        Map<Integer, Integer> candidates = new LinkedHashMap<Integer, Integer>();
+        List<Integer> unknown = new ArrayList<Integer>();
+        Multicall lookups = multicall();
+        for (int i = 0; i < filePaths.size(); i++) {
+            headers[i] = header(filePaths.get(i), checksumType);
+            NVR nvr = headers[i].toNVR();
+            Integer id = index.find(nvr);
+            if (id != null) {
+                candidates.put(i, id);
             } else {
-                dump(response);
-                return null;
+                unknown.add(i);
+                lookups.add("packages.findByNvrea", nvr.getName(), nvr.getVersion(), nvr.getRelease(), epoch(nvr), arch(nvr));
             }
+        }
+        if (0 < lookups.size()) {
+            List<Multicall.Result> found = lookups.flush();
+            for (int i = 0; i < found.size(); i++) {
+                Map<String, Object>[] packages = found.get(i).isFault() ? null : found.get(i).<Map<String, Object>[]> getValue();
+                if (packages != null && packages.length == 1) {
+                    int position = unknown.get(i);
+                    candidates.put(position, indexed(headers[position].toNVR(), packages));
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            return present;
+        }
 
-        } catch (Exception x) {
+        Multicall details = multicall();
+        for (Integer id : candidates.values()) {
+            details.add("packages.getDetails", id);
+        }
+        List<Multicall.Result> results = details.flush();
+        long avoided = 0;
+        int position = 0;
+        for (Map.Entry<Integer, Integer> candidate : candidates.entrySet()) {
+            Multicall.Result detail = results.get(position++);
+            if (detail.isFault()) {
+                // deleted since it was indexed
+                index.removed(Collections.singletonList(candidate.getValue()));
+                continue;
+            }
+            Map<String, Object> pkg = detail.getValue();
+            RpmHeader header = headers[candidate.getKey()];
+            FilePath filePath = filePaths.get(candidate.getKey());
+            String storedType = pkg.get("checksum_type") == null ? RpmDigest.MD5 : (String) pkg.get("checksum_type");
+            String checksum = storedType.equals(checksumType) ? header.getChecksum() : digest(filePath, storedType);
+            if (!checksum.equalsIgnoreCase((String) pkg.get("checksum"))) {
+                warn(filePath.getName() + " differs from package " + candidate.getValue() + " on Satellite");
+                continue;
+            }
+            avoided += header.getLength();
+            info(filePath.getName() + " is already on Satellite, package-id: " + candidate.getValue());
+            present.put(candidate.getKey(), new Present(header.toNVR(), candidate.getValue()));
+        }
+        if (!present.isEmpty()) {
+            info("skipped the upload of " + present.size() + " packages, " + avoided + " bytes avoided");
+        }
+        return present;
+    }
+
+    /**
+     * header, of the rpm with the checksum of the file, read on the node holding it
+     */
+    private RpmHeader header(FilePath filePath, String checksumType) {
+        try {
+            return filePath.act(new RpmHeader.Reader(checksumType));
+        } catch (IOException x) {
             error(x.getClass().getSimpleName() + ": " + x.getMessage());
             throw new IllegalStateException(x);
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(x);
         }
+    }
 
-        Map<String, Object>[] packages = call("packages.findByNvrea", nvr.getName(), nvr.getVersion(), nvr.getRelease(), "", "noarch");
-        if (packages.length != 1) {
+    private static String digest(FilePath filePath, String checksumType) {
+        try {
+            return filePath.act(new RpmDigest(checksumType));
+        } catch (IOException x) {
+            throw new IllegalStateException(x);
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(x);
+        }
+    }
+
+    /**
+     * packageId, the id of an uploaded package from the {@link PackageIndex} or looked up in Satellite
+     */
+    int packageId(NVR nvr) {
+        Integer id = configuration.getPackageIndex().find(nvr);
+        if (id == null) {
+            Map<String, Object>[] packages = call("packages.findByNvrea", nvr.getName(), nvr.getVersion(), nvr.getRelease(), epoch(nvr), arch(nvr));
+            id = indexed(nvr, packages);
+        }
+        info(nvr + " package-id: " + id);
+        return id;
+    }
+
+    /**
+     * indexed, the id of the only package found by <code>packages.findByNvrea</code>, added to the {@link PackageIndex}
+     */
+    private int indexed(NVR nvr, Map<String, Object>[] packages) {
+        if (packages == null || packages.length != 1) {
             throw new IllegalStateException("non unique nvr " + nvr);
         }
         int id = (Integer) packages[0].get("id");
-        info("package-id: " + id);
+        configuration.getPackageIndex().add(nvr, (String) packages[0].get("epoch"), (String) packages[0].get("arch_label"), id);
+        return id;
+    }
 
-        boolean result = addPackage(channel, id);
-        info("push to '" + channel + "' was " + (result ? "successful " : "not successful"));
+    private static String epoch(NVR nvr) {
+        return nvr.getEpoch() == null ? "" : nvr.getEpoch();
+    }
 
-        return nvr;
+    private static String arch(NVR nvr) {
+        return nvr.getArch() == null ? "" : nvr.getArch();
+    }
+
+    /**
+     * Present, a file already on Satellite
+     */
+    static final class Present {
+        final NVR nvr;
+        final int id;
+
+        Present(NVR nvr, int id) {
+            this.nvr = nvr;
+            this.id = id;
+        }
     }
 
     /**
-     * initializeSSLContext
+     * upload, with the header already read by {@link #present(List, RpmHeader[])}, read here if null
      */
-    private void initializeSSLContext() {
+    NVR upload(FilePath filePath, RpmHeader rpm) {
+        String checksumType = configuration.getChecksumType();
+        if (rpm == null) {
+            rpm = header(filePath, checksumType);
+        }
+        NVR nvr = rpm.toNVR();
+        Governor.Permit permit;
         try {
-            TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
-                public X509Certificate[] getAcceptedIssuers() {
-                    return null;
-                }
+            permit = acquire(Governor.Kind.UPLOAD, "upload of " + filePath.getName());
+        } catch (XmlRpcException x) {
+            throw new IllegalStateException(x);
+        }
+        CircuitBreaker circuitBreaker = configuration.getCircuitBreaker();
+        if (!circuitBreaker.tryAcquire()) {
+            permit.release();
+            error("Satellite unavailable, failing fast for another " + circuitBreaker.getRetryIn() + " ms");
+            throw new IllegalStateException("Satellite unavailable");
+        }
+        boolean reported = false;
+        boolean failed = true;
+        long start = System.currentTimeMillis();
+        long length = 0;
+        HttpResponse response = null;
+        try {
+            Map<String, String> headers = new LinkedHashMap<String, String>();
+            headers.put("X-RHN-Upload-Auth-Session", session.getAuth());
+            headers.put("X-RHN-Upload-File-Checksum-Type", checksumType);
+            headers.put("X-RHN-Upload-Force", "0");
+            headers.put("X-RHN-Upload-Package-Arch", nvr.getArch());
+            headers.put("X-RHN-Upload-Package-Name", nvr.getName());
+            headers.put("X-RHN-Upload-Package-Release", nvr.getRelease());
+            headers.put("X-RHN-Upload-Package-Version", nvr.getVersion());
+            headers.put("X-RHN-Upload-Packaging", "rpm");
 
-                public void checkClientTrusted(X509Certificate[] certs, String authType) {
+            length = rpm.getLength();
+            int status;
+            String failure = null;
+            if (configuration.isAgentUploads() && filePath.isRemote()) {
+                info("upload " + filePath + " from the agent");
+                AgentUpload.Response agentResponse = filePath.act(new AgentUpload(configuration.getUrl() + SatelliteMetrics.PACKAGE_PUSH, headers, checksumType, configuration));
+                status = agentResponse.getStatus();
+                failure = agentResponse.getFailure();
+            } else {
+                HttpPost httpPost = new HttpPost(configuration.getUrl() + SatelliteMetrics.PACKAGE_PUSH);
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    httpPost.setHeader(header.getKey(), header.getValue());
                 }
+                httpPost.setHeader("X-RHN-Upload-File-Checksum", rpm.getChecksum());
+                httpPost.setEntity(new InputStreamEntity(filePath.read(), length, ContentType.create("application/x-rpm")));
 
-                public void checkServerTrusted(X509Certificate[] certs, String authType) {
-                }
-            } };
+                info("upload " + filePath);
 
-            SSLContext sslContext = SSLContext.getInstance("SSL");
-            HostnameVerifier hostnameVerifier = new HostnameVerifier() {
-                public boolean verify(String host, SSLSession session) {
-                    return true;
+                response = configuration.getConnectionPool().getHttpClient().execute(httpPost);
+                status = response.getStatusLine().getStatusCode();
+                if (status != 200) {
+                    failure = describe(response);
                 }
-            };
+            }
+            if (500 <= status) {
+                circuitBreaker.onFailure();
+            } else {
+                circuitBreaker.onSuccess();
+            }
+            reported = true;
+            if (status == 200) {
+                failed = false;
+                info("upload was successful");
+            } else {
+                error(failure);
+                return null;
+            }
 
-            sslContext.init(null, trustAllCerts, new java.security.SecureRandom());
-            HttpsURLConnection.setDefaultSSLSocketFactory(sslContext.getSocketFactory());
-            HttpsURLConnection.setDefaultHostnameVerifier(hostnameVerifier);
         } catch (Exception x) {
-            throw new IllegalStateException(x);
-        }
-
-    }
-
-    /**
-     * configureHttps
-     */
-    private void configureHttps(DefaultHttpClient httpClient) {
-        TrustStrategy trustStrategy = new TrustStrategy() {
-            public boolean isTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-                return true;
+            if (x instanceof IOException && !reported) {
+                circuitBreaker.onFailure();
+                reported = true;
             }
-        };
-        try {
-            SSLSocketFactory sslSocketFactory = new SSLSocketFactory(trustStrategy, SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
-            Scheme https = new Scheme("https", 443, sslSocketFactory);
-            httpClient.getConnectionManager().getSchemeRegistry().register(https);
-        } catch (Exception x) {
+            error(x.getClass().getSimpleName() + ": " + x.getMessage());
             throw new IllegalStateException(x);
+        } finally {
+            if (!reported) {
+                circuitBreaker.release();
+            }
+            if (response != null) {
+                EntityUtils.consumeQuietly(response.getEntity());
+            }
+            permit.release();
+            SatelliteMetrics metrics = configuration.getMetrics();
+            metrics.record(SatelliteMetrics.PACKAGE_PUSH, System.currentTimeMillis() - start, failed);
+            metrics.recordBytes(SatelliteMetrics.PACKAGE_PUSH, reported ? length : 0, 0);
         }
+        return nvr;
     }
 
     /**
-     * dump
+     * describe, the status line, the error reported by Satellite and the body of a failed upload
      */
-    private void dump(HttpResponse response) {
+    static String describe(HttpResponse response) {
         StringBuilder sb = new StringBuilder(response.getStatusLine().toString());
         for (Header header : response.getAllHeaders()) {
             String headerName = header.getName();
             String headerValue = header.getValue();
-            if (headerName.equals("X-RHN-Upload-Error-String")) {
+            if (headerName.equalsIgnoreCase("X-RHN-Upload-Error-String")) {
                 sb.append(headerName).append(':').append(new String(Base64.decodeBase64(headerValue))).append('\n');
             }
         }
@@ -438,7 +783,7 @@ public class SatelliteConnection {
                 // ignore
             }
 
-        error(sb.toString());
+        return sb.toString();
     }
 
     /**
@@ -460,52 +805,350 @@ public class SatelliteConnection {
      * call
      */
     private <T> T call(String method, Object... args) {
-        Object[] params = null;
-        if (auth != null) {
-            params = new Object[args.length + 1];
-            params[0] = auth;
-            System.arraycopy(args, 0, params, 1, args.length);
-        } else {
-            params = args;
-        }
         T result = null;
         try {
-            Object obj = client.execute(method, params);
-            if (obj.getClass().isArray()) {
-                Object[] objArray = (Object[]) obj;
-                if (0 < objArray.length && objArray[0] instanceof Map) {
-                    Map<?, ?>[] mapArray = new Map<?, ?>[objArray.length];
-                    System.arraycopy(objArray, 0, mapArray, 0, objArray.length);
-                    result = (T) mapArray;
+            result = (T) convert(execute(method, args));
+        } catch (Exception x) {
+            throw new IllegalStateException(x);
+        }
+
+        if (oneCall && session != null) {
+            logout();
+        }
+
+        return result;
+    }
+
+    /**
+     * stream, calls a method returning an array of structs and hands each struct to the handler while the response is read
+     */
+    private int stream(final String method, XmlRpcStreaming.Handler handler, final Object... args) {
+        final CountingHandler counting = new CountingHandler(handler);
+        int result = 0;
+        try {
+            result = (Integer) guarded(method, isIdempotent(method), new Invocation() {
+                public Object invoke() throws XmlRpcException {
+                    try {
+                        try {
+                            return streamOnce(method, counting, args);
+                        } catch (XmlRpcException x) {
+                            if (!SessionPool.isSessionExpired(x)) {
+                                throw x;
+                            }
+                            warn("session expired, login again");
+                            session = configuration.getSessionPool().renew(session);
+                            return streamOnce(method, counting, args);
+                        }
+                    } catch (XmlRpcException x) {
+                        if (0 < counting.count && isTransient(x)) {
+                            // entries were already handed out, a retry would deliver them twice
+                            throw new ResponseInterruptedException("response interrupted after " + counting.count + " entries: " + x.getMessage(), x);
+                        }
+                        throw x;
+                    }
                 }
-            } else {
-                result = (T) obj;
-            }
-            
+            });
         } catch (Exception x) {
             throw new IllegalStateException(x);
         }
 
-        if (oneCall && auth != null) {
+        if (oneCall && session != null) {
+            logout();
+        }
+
+        return result;
+    }
+
+    /**
+     * streamOnce
+     */
+    private int streamOnce(final String method, XmlRpcStreaming.Handler handler, Object... args) throws XmlRpcException {
+        final Object[] params = params(args);
+        EntityTemplate entity = new EntityTemplate(new ContentProducer() {
+            public void writeTo(OutputStream out) throws IOException {
+                try {
+                    XmlRpcStreaming.writeRequest(out, method, params);
+                } catch (XMLStreamException x) {
+                    throw new IOException(x.getMessage(), x);
+                }
+            }
+        });
+        entity.setContentType("text/xml");
+        HttpPost httpPost = new HttpPost(configuration.getRpcUrl().toString());
+        HttpConnectionPool connectionPool = configuration.getConnectionPool();
+        Compression compression = connectionPool.getCompression();
+        AtomicLong sent = new AtomicLong();
+        AtomicLong received = new AtomicLong();
+
+        HttpResponse response = null;
+        try {
+            boolean compressed = compression.prepare(httpPost, entity, sent);
+            response = connectionPool.getHttpClient().execute(httpPost);
+            if (compressed && compression.isRejected(response) && HttpClientTransport.isReplayable(method)) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                compression.fallback(httpPost, entity, sent);
+                response = connectionPool.getHttpClient().execute(httpPost);
+            }
+            int status = response.getStatusLine().getStatusCode();
+            if (status < 200 || 299 < status) {
+                throw new XmlRpcHttpTransportException(status, response.getStatusLine().getReasonPhrase());
+            }
+            InputStream in = compression.decode(response, received);
             try {
-                client.execute("auth.logout", new Object[] { auth });
-            } catch (Exception x) {
-                // ignore
+                return XmlRpcStreaming.readArray(in, handler);
             } finally {
-                reset();
+                in.close();
+            }
+        } catch (IOException x) {
+            throw new XmlRpcClientException("I/O error while communicating with HTTP server: " + x.getMessage(), x);
+        } finally {
+            if (response != null) {
+                EntityUtils.consumeQuietly(response.getEntity());
             }
+            configuration.getMetrics().recordBytes(method, sent.get(), received.get());
         }
+    }
 
-        return result;
+    /**
+     * ResponseInterruptedException, a transient failure after parts of the response were delivered, it counts
+     * for the circuit breaker but is not retried
+     */
+    private static class ResponseInterruptedException extends XmlRpcClientException {
+        private static final long serialVersionUID = 1L;
+
+        ResponseInterruptedException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * CountingHandler
+     */
+    private static class CountingHandler implements XmlRpcStreaming.Handler {
+        private final XmlRpcStreaming.Handler handler;
+        private int count;
+
+        CountingHandler(XmlRpcStreaming.Handler handler) {
+            this.handler = handler;
+        }
+
+        public void struct(Map<String, Object> struct) {
+            count++;
+            handler.struct(struct);
+        }
+    }
+
+    /**
+     * execute, renews the session once if Satellite rejects it as expired
+     */
+    Object execute(final String method, final Object... args) throws XmlRpcException {
+        return guarded(method, isIdempotent(method), new Invocation() {
+            public Object invoke() throws XmlRpcException {
+                try {
+                    return session.getClient().execute(method, params(args));
+                } catch (XmlRpcException x) {
+                    if (!SessionPool.isSessionExpired(x)) {
+                        throw x;
+                    }
+                    warn("session expired, login again");
+                    session = configuration.getSessionPool().renew(session);
+                    return session.getClient().execute(method, params(args));
+                }
+            }
+        });
+    }
+
+    /**
+     * executeMulticall, the calls carry their own session key
+     */
+    Object executeMulticall(final List<Map<String, Object>> calls, boolean idempotent) throws XmlRpcException {
+        return guarded("system.multicall", idempotent, new Invocation() {
+            public Object invoke() throws XmlRpcException {
+                return session.getClient().execute("system.multicall", new Object[] { calls });
+            }
+        });
+    }
+
+    /**
+     * guarded, records latency and outcome of the invocation including its retries
+     */
+    private Object guarded(String method, boolean idempotent, Invocation invocation) throws XmlRpcException {
+        long start = System.currentTimeMillis();
+        boolean failed = true;
+        try {
+            Object result = retried(method, idempotent, invocation);
+            failed = false;
+            return result;
+        } finally {
+            configuration.getMetrics().record(method, System.currentTimeMillis() - start, failed);
+        }
+    }
+
+    /**
+     * retried, runs the invocation in a slot of the governor and through the circuit breaker, retries
+     * idempotent methods with jittered exponential backoff on transient failures
+     */
+    private Object retried(String method, boolean idempotent, Invocation invocation) throws XmlRpcException {
+        CircuitBreaker circuitBreaker = configuration.getCircuitBreaker();
+        int maxAttempts = idempotent ? MAX_ATTEMPTS : 1;
+        for (int attempt = 1;; attempt++) {
+            Governor.Permit permit = acquire(Governor.Kind.RPC, method);
+            if (!circuitBreaker.tryAcquire()) {
+                permit.release();
+                throw new XmlRpcClientException("Satellite unavailable, failing fast for another " + circuitBreaker.getRetryIn() + " ms", null);
+            }
+            XmlRpcException failure = null;
+            boolean reported = false;
+            try {
+                Object result = invocation.invoke();
+                circuitBreaker.onSuccess();
+                reported = true;
+                return result;
+            } catch (XmlRpcException x) {
+                if (!isTransient(x)) {
+                    circuitBreaker.onSuccess();
+                    reported = true;
+                    throw x;
+                }
+                circuitBreaker.onFailure();
+                reported = true;
+                if (maxAttempts <= attempt || x instanceof ResponseInterruptedException) {
+                    throw x;
+                }
+                failure = x;
+            } finally {
+                // the slot is not held during the backoff
+                permit.release();
+                if (!reported) {
+                    circuitBreaker.release();
+                }
+            }
+            long delay = backoff(attempt);
+            warn(method + " failed (" + failure.getMessage() + "), retry " + attempt + " of " + (maxAttempts - 1) + " in " + delay + " ms");
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ix) {
+                Thread.currentThread().interrupt();
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * acquire, waits for a slot of the governor, long waits are reported in the build log
+     */
+    private Governor.Permit acquire(Governor.Kind kind, String what) throws XmlRpcException {
+        Governor governor = configuration.getGovernor();
+        Governor.Permit permit;
+        try {
+            permit = governor.acquire(kind, job);
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new XmlRpcClientException("interrupted while waiting for a free Satellite slot", x);
+        }
+        long wait = permit.getWaitMillis();
+        queueWaitMillis += wait;
+        if (WAIT_REPORT_MILLIS <= wait) {
+            info(what + " waited " + wait + " ms for a free Satellite slot (" + governor.getQueueLength(kind) + " more queued)");
+        }
+        return permit;
+    }
+
+    /**
+     * isIdempotent, read-only methods may be retried
+     */
+    static boolean isIdempotent(String method) {
+        String name = method.substring(method.lastIndexOf('.') + 1);
+        return name.startsWith("list") || name.startsWith("lookup") || name.startsWith("find") || name.startsWith("get");
+    }
+
+    /**
+     * isFault, Satellite answered with a fault, the request itself went through
+     */
+    static boolean isFault(Throwable x) {
+        for (Throwable t = x; t != null; t = t.getCause()) {
+            if (t instanceof XmlRpcClientException || t instanceof XmlRpcHttpTransportException) {
+                return false;
+            }
+            if (t instanceof XmlRpcException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * isTransient, I/O errors and server errors, faults reported by Satellite are not
+     */
+    static boolean isTransient(Throwable x) {
+        for (Throwable t = x; t != null; t = t.getCause()) {
+            if (t instanceof XmlRpcHttpTransportException) {
+                int status = ((XmlRpcHttpTransportException) t).getStatusCode();
+                return status == 429 || 500 <= status;
+            }
+            if (t instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * backoff, exponential with jitter between half and the full delay
+     */
+    static long backoff(int attempt) {
+        long delay = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1));
+        return delay / 2 + (long) (Math.random() * (delay / 2));
+    }
+
+    /**
+     * Invocation
+     */
+    private interface Invocation {
+        Object invoke() throws XmlRpcException;
+    }
+
+    boolean isMulticallSupported() {
+        return configuration.getSessionPool().isMulticallSupported();
+    }
+
+    void setMulticallSupported(boolean multicallSupported) {
+        configuration.getSessionPool().setMulticallSupported(multicallSupported);
+    }
+
+    /**
+     * convert, arrays of structs are returned as Map[]
+     */
+    static Object convert(Object obj) {
+        if (obj != null && obj.getClass().isArray()) {
+            Object[] objArray = (Object[]) obj;
+            if (0 < objArray.length && objArray[0] instanceof Map) {
+                Map<?, ?>[] mapArray = new Map<?, ?>[objArray.length];
+                System.arraycopy(objArray, 0, mapArray, 0, objArray.length);
+                return mapArray;
+            }
+            return null;
+        }
+        return obj;
+    }
+
+    /**
+     * params, the session key is always the first parameter
+     */
+    Object[] params(Object... args) {
+        Object[] params = new Object[args.length + 1];
+        params[0] = session.getAuth();
+        System.arraycopy(args, 0, params, 1, args.length);
+        return params;
     }
 
     /**
      * reset
      */
     private void reset() {
-        client = null;
-        auth = null;
+        session = null;
         oneCall = false;
+        queueWaitMillis = 0;
     }
 
 }
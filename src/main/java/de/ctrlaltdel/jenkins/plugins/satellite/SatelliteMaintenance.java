@@ -0,0 +1,45 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+
+import jenkins.model.Jenkins;
+
+/**
+ * SatelliteMaintenance, periodic housekeeping of the shared Satellite resources
+ * @author ds
+ */
+@Extension
+public class SatelliteMaintenance extends PeriodicWork {
+
+    @Override
+    public long getRecurrencePeriod() {
+        return MIN;
+    }
+
+    @Override
+    protected void doRun() throws Exception {
+        PluginConfiguration configuration = (PluginConfiguration) Jenkins.getInstance().getDescriptorOrDie(PluginConfiguration.class);
+        configuration.getSessionPool().evictIdle();
+        configuration.getConnectionPool().evictIdle();
+        configuration.closeRetiredPools();
+        reconcile(configuration);
+    }
+
+    /**
+     * reconcile, picks up packages removed from the channels by others
+     */
+    private void reconcile(PluginConfiguration configuration) {
+        ChannelIndex channelIndex = configuration.getChannelIndex();
+        if (!configuration.isIncrementalSync() || !channelIndex.isReconcileDue()) {
+            return;
+        }
+        SatelliteConnection connection = SatelliteConnection.from(configuration).login();
+        try {
+            channelIndex.reconcile(connection);
+        } finally {
+            connection.logout();
+        }
+    }
+
+}
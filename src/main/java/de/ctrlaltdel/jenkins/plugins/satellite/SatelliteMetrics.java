@@ -0,0 +1,238 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * SatelliteMetrics, per-method call counts, errors, bytes and latencies of all Satellite requests
+ * of this controller. Uploads are recorded as method {@link #PACKAGE_PUSH}.
+ *
+ * @author ds
+ */
+public class SatelliteMetrics {
+
+    public static final String PACKAGE_PUSH = "/PACKAGE-PUSH";
+
+    /** largest histogram bucket exported to Prometheus, 2^20 ms */
+    static final int MAX_EXPORTED_MAGNITUDE = 20;
+
+    private final ConcurrentMap<String, MethodMetrics> methods = new ConcurrentHashMap<String, MethodMetrics>();
+    private final CompressionMetrics compression = new CompressionMetrics();
+    private final long started = System.currentTimeMillis();
+
+    /**
+     * record a finished request
+     */
+    public void record(String method, long millis, boolean failed) {
+        MethodMetrics metrics = get(method);
+        metrics.calls.incrementAndGet();
+        if (failed) {
+            metrics.errors.incrementAndGet();
+        }
+        metrics.latency.record(millis);
+    }
+
+    /**
+     * recordBytes, sent and received bytes on the wire
+     */
+    public void recordBytes(String method, long sent, long received) {
+        MethodMetrics metrics = get(method);
+        metrics.bytesSent.addAndGet(sent);
+        metrics.bytesReceived.addAndGet(received);
+    }
+
+    public MethodMetrics get(String method) {
+        MethodMetrics metrics = methods.get(method);
+        if (metrics == null) {
+            MethodMetrics created = new MethodMetrics();
+            metrics = methods.putIfAbsent(method, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * getCompression, uncompressed and transferred bytes of the XML-RPC requests and responses
+     */
+    public CompressionMetrics getCompression() {
+        return compression;
+    }
+
+    /**
+     * getMethods, sorted by method name
+     */
+    public Map<String, MethodMetrics> getMethods() {
+        return new TreeMap<String, MethodMetrics>(methods);
+    }
+
+    /**
+     * toPrometheus, text exposition format 0.0.4
+     */
+    public String toPrometheus() {
+        Map<String, MethodMetrics> sorted = getMethods();
+        StringBuilder sb = new StringBuilder();
+        header(sb, "satellite_requests_total", "counter", "Satellite requests by method");
+        for (Map.Entry<String, MethodMetrics> entry : sorted.entrySet()) {
+            sample(sb, "satellite_requests_total", entry.getKey(), null, entry.getValue().getCalls());
+        }
+        header(sb, "satellite_request_errors_total", "counter", "Failed Satellite requests by method");
+        for (Map.Entry<String, MethodMetrics> entry : sorted.entrySet()) {
+            sample(sb, "satellite_request_errors_total", entry.getKey(), null, entry.getValue().getErrors());
+        }
+        header(sb, "satellite_request_sent_bytes_total", "counter", "Bytes sent to Satellite by method");
+        for (Map.Entry<String, MethodMetrics> entry : sorted.entrySet()) {
+            sample(sb, "satellite_request_sent_bytes_total", entry.getKey(), null, entry.getValue().getBytesSent());
+        }
+        header(sb, "satellite_request_received_bytes_total", "counter", "Bytes received from Satellite by method");
+        for (Map.Entry<String, MethodMetrics> entry : sorted.entrySet()) {
+            sample(sb, "satellite_request_received_bytes_total", entry.getKey(), null, entry.getValue().getBytesReceived());
+        }
+        header(sb, "satellite_compression_raw_bytes_total", "counter", "Uncompressed XML-RPC bytes by direction");
+        direction(sb, "satellite_compression_raw_bytes_total", "request", compression.getRequestBytes());
+        direction(sb, "satellite_compression_raw_bytes_total", "response", compression.getResponseBytes());
+        header(sb, "satellite_compression_wire_bytes_total", "counter", "Transferred XML-RPC bytes by direction");
+        direction(sb, "satellite_compression_wire_bytes_total", "request", compression.getRequestWireBytes());
+        direction(sb, "satellite_compression_wire_bytes_total", "response", compression.getResponseWireBytes());
+        header(sb, "satellite_request_duration_seconds", "histogram", "Latency of Satellite requests by method");
+        for (Map.Entry<String, MethodMetrics> entry : sorted.entrySet()) {
+            LatencyHistogram latency = entry.getValue().latency;
+            for (int magnitude = 0; magnitude <= MAX_EXPORTED_MAGNITUDE; magnitude++) {
+                String le = "le=\"" + ((1L << magnitude) / 1000.0) + '"';
+                sample(sb, "satellite_request_duration_seconds_bucket", entry.getKey(), le, latency.countAtMost(magnitude));
+            }
+            sample(sb, "satellite_request_duration_seconds_bucket", entry.getKey(), "le=\"+Inf\"", latency.getCount());
+            sb.append("satellite_request_duration_seconds_sum{method=\"").append(escape(entry.getKey())).append("\"} ")
+                    .append(latency.getSum() / 1000.0).append('\n');
+            sample(sb, "satellite_request_duration_seconds_count", entry.getKey(), null, latency.getCount());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * toJson
+     */
+    public JSONObject toJson() {
+        JSONArray array = new JSONArray();
+        for (Map.Entry<String, MethodMetrics> entry : getMethods().entrySet()) {
+            MethodMetrics metrics = entry.getValue();
+            LatencyHistogram latency = metrics.latency;
+            JSONObject json = new JSONObject();
+            json.put("method", entry.getKey());
+            json.put("calls", metrics.getCalls());
+            json.put("errors", metrics.getErrors());
+            json.put("bytesSent", metrics.getBytesSent());
+            json.put("bytesReceived", metrics.getBytesReceived());
+            json.put("meanMillis", Math.round(latency.getMean()));
+            json.put("p50Millis", latency.getPercentile(50));
+            json.put("p90Millis", latency.getPercentile(90));
+            json.put("p99Millis", latency.getPercentile(99));
+            json.put("maxMillis", latency.getMax());
+            array.add(json);
+        }
+        JSONObject json = new JSONObject();
+        JSONObject gzip = new JSONObject();
+        gzip.put("requestBytes", compression.getRequestBytes());
+        gzip.put("requestWireBytes", compression.getRequestWireBytes());
+        gzip.put("responseBytes", compression.getResponseBytes());
+        gzip.put("responseWireBytes", compression.getResponseWireBytes());
+        gzip.put("bytesSaved", compression.getBytesSaved());
+        json.put("since", started);
+        json.put("methods", array);
+        json.put("compression", gzip);
+        return json;
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String method, String label, long value) {
+        sb.append(name).append("{method=\"").append(escape(method)).append('"');
+        if (label != null) {
+            sb.append(',').append(label);
+        }
+        sb.append("} ").append(value).append('\n');
+    }
+
+    private static void direction(StringBuilder sb, String name, String direction, long value) {
+        sb.append(name).append("{direction=\"").append(direction).append("\"} ").append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * MethodMetrics
+     */
+    public static class MethodMetrics {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong bytesSent = new AtomicLong();
+        private final AtomicLong bytesReceived = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        public long getBytesSent() {
+            return bytesSent.get();
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived.get();
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+    }
+
+    /**
+     * CompressionMetrics, filled by the {@link Compression} of the connection pool
+     */
+    public static class CompressionMetrics {
+        final AtomicLong requestBytes = new AtomicLong();
+        final AtomicLong requestWireBytes = new AtomicLong();
+        final AtomicLong responseBytes = new AtomicLong();
+        final AtomicLong responseWireBytes = new AtomicLong();
+
+        public long getRequestBytes() {
+            return requestBytes.get();
+        }
+
+        public long getRequestWireBytes() {
+            return requestWireBytes.get();
+        }
+
+        public long getResponseBytes() {
+            return responseBytes.get();
+        }
+
+        public long getResponseWireBytes() {
+            return responseWireBytes.get();
+        }
+
+        /**
+         * getBytesSaved, difference between the uncompressed and the transferred size of requests and responses
+         */
+        public long getBytesSaved() {
+            return getRequestBytes() - getRequestWireBytes() + getResponseBytes() - getResponseWireBytes();
+        }
+    }
+
+}
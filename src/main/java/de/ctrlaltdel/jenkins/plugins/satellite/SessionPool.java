@@ -0,0 +1,244 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+
+/**
+ * Thread-safe pool of authenticated Satellite sessions, owned by the {@link PluginConfiguration}.
+ * <p>
+ * A {@link SatelliteConnection} borrows a session on login and hands it back on logout, so the
+ * <code>auth.login</code> / <code>auth.logout</code> round-trips are only paid when the pool runs dry
+ * or a session has been idle for too long.
+ *
+ * @author ds
+ */
+public class SessionPool {
+
+    /** sessions unused for this time are logged out */
+    static final long MAX_IDLE_MILLIS = 10 * 60 * 1000L;
+
+    /** Satellite expires sessions after one hour by default, give them up a little earlier */
+    static final long MAX_AGE_MILLIS = 50 * 60 * 1000L;
+
+    /** upper bound of idle sessions kept in the pool */
+    static final int MAX_IDLE_SESSIONS = 16;
+
+    private final PluginConfiguration configuration;
+    private final LinkedList<Session> idle = new LinkedList<Session>();
+    private XmlRpcClient client;
+    private volatile boolean multicallSupported = true;
+
+    SessionPool(PluginConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * getClient, the XmlRpcClient is thread-safe and shared by all sessions
+     */
+    public synchronized XmlRpcClient getClient() {
+        if (client == null) {
+            XmlRpcClientConfigImpl config = new XmlRpcClientConfigImpl();
+            config.setServerURL(configuration.getRpcUrl());
+            config.setEnabledForExtensions(true);
+
+            client = new XmlRpcClient();
+            client.setConfig(config);
+            client.setTransportFactory(new HttpClientTransport.Factory(client, configuration.getConnectionPool(), configuration.getMetrics()));
+        }
+        return client;
+    }
+
+    /**
+     * borrow an authenticated session, logs in if no idle session is available
+     */
+    public Session borrow() {
+        long now = System.currentTimeMillis();
+        List<Session> retired = new ArrayList<Session>();
+        Session session = null;
+        synchronized (this) {
+            while (!idle.isEmpty()) {
+                Session candidate = idle.removeFirst();
+                if (candidate.isExpired(now)) {
+                    retired.add(candidate);
+                } else {
+                    session = candidate;
+                    break;
+                }
+            }
+        }
+        logout(retired);
+        if (session == null) {
+            session = login();
+        }
+        session.lastUsed = now;
+        return session;
+    }
+
+    /**
+     * release a session back to the pool
+     */
+    public void release(Session session) {
+        if (session == null) {
+            return;
+        }
+        session.lastUsed = System.currentTimeMillis();
+        Session surplus = null;
+        synchronized (this) {
+            if (session.pool != this || session.invalid) {
+                return;
+            }
+            idle.addFirst(session);
+            if (MAX_IDLE_SESSIONS < idle.size()) {
+                surplus = idle.removeLast();
+            }
+        }
+        if (surplus != null) {
+            logout(surplus);
+        }
+    }
+
+    /**
+     * invalidate a session which was rejected by Satellite, it will not be reused
+     */
+    public void invalidate(Session session) {
+        if (session != null) {
+            session.invalid = true;
+        }
+    }
+
+    /**
+     * renew an expired session, returns a freshly authenticated one
+     */
+    public Session renew(Session session) {
+        invalidate(session);
+        return login();
+    }
+
+    /**
+     * retire idle sessions which exceeded their idle time or age
+     */
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        List<Session> retired = new ArrayList<Session>();
+        synchronized (this) {
+            for (Iterator<Session> it = idle.iterator(); it.hasNext();) {
+                Session session = it.next();
+                if (session.isExpired(now)) {
+                    it.remove();
+                    retired.add(session);
+                }
+            }
+        }
+        logout(retired);
+    }
+
+    /**
+     * clear, logs out all idle sessions and drops the client (e.g. after a configuration change)
+     */
+    public void clear() {
+        List<Session> retired;
+        synchronized (this) {
+            retired = new ArrayList<Session>(idle);
+            idle.clear();
+        }
+        logout(retired);
+        synchronized (this) {
+            client = null;
+            multicallSupported = true;
+        }
+    }
+
+    boolean isMulticallSupported() {
+        return multicallSupported;
+    }
+
+    void setMulticallSupported(boolean multicallSupported) {
+        this.multicallSupported = multicallSupported;
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * isSessionExpired, Satellite reports unknown or expired session keys as fault
+     */
+    static boolean isSessionExpired(Throwable x) {
+        for (Throwable t = x; t != null; t = t.getCause()) {
+            if (t instanceof XmlRpcException && t.getMessage() != null) {
+                String msg = t.getMessage().toLowerCase();
+                if (msg.contains("session") && (msg.contains("could not find") || msg.contains("expired") || msg.contains("invalid"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * login
+     */
+    private Session login() {
+        try {
+            String auth = (String) getClient().execute("auth.login", new Object[] { configuration.getUser(), configuration.getPassword() });
+            return new Session(this, auth);
+        } catch (Exception x) {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    /**
+     * logout
+     */
+    private void logout(List<Session> sessions) {
+        for (Session session : sessions) {
+            logout(session);
+        }
+    }
+
+    private void logout(Session session) {
+        session.invalid = true;
+        try {
+            getClient().execute("auth.logout", new Object[] { session.auth });
+        } catch (Exception x) {
+            // ignore, the session is gone anyway
+        }
+    }
+
+    /**
+     * Session
+     */
+    public static class Session {
+        private final SessionPool pool;
+        private final String auth;
+        private final long created;
+        private volatile long lastUsed;
+        private volatile boolean invalid;
+
+        Session(SessionPool pool, String auth) {
+            this.pool = pool;
+            this.auth = auth;
+            this.created = System.currentTimeMillis();
+            this.lastUsed = created;
+        }
+
+        public String getAuth() {
+            return auth;
+        }
+
+        public XmlRpcClient getClient() {
+            return pool.getClient();
+        }
+
+        boolean isExpired(long now) {
+            return invalid || MAX_IDLE_MILLIS < now - lastUsed || MAX_AGE_MILLIS < now - created;
+        }
+    }
+
+}
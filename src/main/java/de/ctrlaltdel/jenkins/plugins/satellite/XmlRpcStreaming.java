@@ -0,0 +1,280 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.xmlrpc.XmlRpcException;
+
+/**
+ * XmlRpcStreaming, StAX based XML-RPC for large list responses.
+ * <p>
+ * The structs of an array response are handed to a {@link Handler} one by one while the response is
+ * read, so the whole array is never held in memory.
+ *
+ * @author ds
+ */
+public class XmlRpcStreaming {
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    /**
+     * Handler, receives each struct of the response array
+     */
+    public interface Handler {
+        void struct(Map<String, Object> struct);
+    }
+
+    private XmlRpcStreaming() {
+    }
+
+    /**
+     * writeRequest
+     */
+    public static void writeRequest(OutputStream out, String method, Object... params) throws XMLStreamException {
+        XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.writeStartElement("methodCall");
+        writer.writeStartElement("methodName");
+        writer.writeCharacters(method);
+        writer.writeEndElement();
+        writer.writeStartElement("params");
+        for (Object param : params) {
+            writer.writeStartElement("param");
+            writeValue(writer, param);
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+        writer.close();
+    }
+
+    /**
+     * readArray, reads an array response and hands each struct to the handler, returns the number of structs
+     */
+    public static int readArray(InputStream in, Handler handler) throws XmlRpcException {
+        XMLStreamReader reader = null;
+        try {
+            reader = INPUT_FACTORY.createXMLStreamReader(in);
+            int count = 0;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String name = reader.getLocalName();
+                if ("fault".equals(name)) {
+                    nextStart(reader, "value");
+                    Map<?, ?> fault = (Map<?, ?>) readValue(reader);
+                    Object faultCode = fault.get("faultCode");
+                    throw new XmlRpcException(faultCode instanceof Integer ? (Integer) faultCode : 0, (String) fault.get("faultString"));
+                }
+                if ("data".equals(name)) {
+                    while (nextStartOrEnd(reader, "data")) {
+                        Object value = readValue(reader);
+                        if (value instanceof Map) {
+                            handler.struct((Map<String, Object>) value);
+                            count++;
+                        }
+                    }
+                    return count;
+                }
+            }
+            throw new XmlRpcException("Invalid XML-RPC response, array expected");
+        } catch (XMLStreamException x) {
+            throw new XmlRpcException("Failed to parse XML-RPC response: " + x.getMessage(), x);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException x) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * readValue, the reader is positioned on a &lt;value&gt; start element and ends on its end element
+     */
+    private static Object readValue(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        Object value = null;
+        boolean typed = false;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                if (!typed) {
+                    text.append(reader.getText());
+                }
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                typed = true;
+                value = readTyped(reader);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return typed ? value : text.toString();
+            }
+        }
+        throw new XMLStreamException("unexpected end of value");
+    }
+
+    /**
+     * readTyped, the reader is positioned on the type element
+     */
+    private static Object readTyped(XMLStreamReader reader) throws XMLStreamException {
+        String type = reader.getLocalName();
+        if ("struct".equals(type)) {
+            Map<String, Object> struct = new HashMap<String, Object>();
+            while (nextStartOrEnd(reader, "struct")) {
+                // member
+                String name = null;
+                Object value = null;
+                while (nextStartOrEnd(reader, "member")) {
+                    if ("name".equals(reader.getLocalName())) {
+                        name = reader.getElementText();
+                    } else {
+                        value = readValue(reader);
+                    }
+                }
+                struct.put(name, value);
+            }
+            return struct;
+        }
+        if ("array".equals(type)) {
+            List<Object> list = new ArrayList<Object>();
+            nextStart(reader, "data");
+            while (nextStartOrEnd(reader, "data")) {
+                list.add(readValue(reader));
+            }
+            nextEnd(reader, "array");
+            return list.toArray();
+        }
+        if ("nil".equals(type)) {
+            nextEnd(reader, "nil");
+            return null;
+        }
+        // strings keep their whitespace, only the scalar types are trimmed
+        String text = reader.getElementText();
+        if ("int".equals(type) || "i4".equals(type)) {
+            return Integer.valueOf(text.trim());
+        }
+        if ("i8".equals(type)) {
+            return Long.valueOf(text.trim());
+        }
+        if ("boolean".equals(type)) {
+            return "1".equals(text.trim()) || "true".equalsIgnoreCase(text.trim());
+        }
+        if ("double".equals(type)) {
+            return Double.valueOf(text.trim());
+        }
+        if ("dateTime.iso8601".equals(type)) {
+            try {
+                return new SimpleDateFormat("yyyyMMdd'T'HH:mm:ss").parse(text.trim());
+            } catch (Exception x) {
+                throw new XMLStreamException("Invalid dateTime.iso8601: " + text);
+            }
+        }
+        if ("base64".equals(type)) {
+            return Base64.decodeBase64(text);
+        }
+        return text;
+    }
+
+    /**
+     * writeValue
+     */
+    private static void writeValue(XMLStreamWriter writer, Object param) throws XMLStreamException {
+        writer.writeStartElement("value");
+        if (param instanceof Integer) {
+            writeElement(writer, "int", param.toString());
+        } else if (param instanceof Boolean) {
+            writeElement(writer, "boolean", ((Boolean) param) ? "1" : "0");
+        } else if (param instanceof Double) {
+            writeElement(writer, "double", param.toString());
+        } else if (param instanceof Date) {
+            writeElement(writer, "dateTime.iso8601", new SimpleDateFormat("yyyyMMdd'T'HH:mm:ss").format((Date) param));
+        } else if (param instanceof List) {
+            writer.writeStartElement("array");
+            writer.writeStartElement("data");
+            for (Object element : (List<?>) param) {
+                writeValue(writer, element);
+            }
+            writer.writeEndElement();
+            writer.writeEndElement();
+        } else if (param instanceof Map) {
+            writer.writeStartElement("struct");
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) param).entrySet()) {
+                writer.writeStartElement("member");
+                writeElement(writer, "name", String.valueOf(entry.getKey()));
+                writeValue(writer, entry.getValue());
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+        } else {
+            writeElement(writer, "string", String.valueOf(param));
+        }
+        writer.writeEndElement();
+    }
+
+    private static void writeElement(XMLStreamWriter writer, String name, String text) throws XMLStreamException {
+        writer.writeStartElement(name);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+    }
+
+    /**
+     * nextStartOrEnd, moves to the next start element, returns false when the end element of the parent is reached
+     */
+    private static boolean nextStartOrEnd(XMLStreamReader reader, String parent) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+            if (event == XMLStreamConstants.END_ELEMENT && parent.equals(reader.getLocalName())) {
+                return false;
+            }
+        }
+        throw new XMLStreamException("unexpected end of " + parent);
+    }
+
+    private static void nextStart(XMLStreamReader reader, String name) throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT && name.equals(reader.getLocalName())) {
+                return;
+            }
+        }
+        throw new XMLStreamException("missing " + name);
+    }
+
+    private static void nextEnd(XMLStreamReader reader, String name) throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.END_ELEMENT && name.equals(reader.getLocalName())) {
+                return;
+            }
+        }
+        throw new XMLStreamException("missing end of " + name);
+    }
+
+}
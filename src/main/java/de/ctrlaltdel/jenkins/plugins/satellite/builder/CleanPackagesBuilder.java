@@ -14,13 +14,10 @@ import hudson.util.ListBoxModel;
 
 import java.io.IOException;
 import java.io.PrintStream;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
-import java.util.Map;
 import java.util.TimeZone;
 import java.util.regex.Pattern;
 
@@ -33,7 +30,9 @@ import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
+import de.ctrlaltdel.jenkins.plugins.satellite.ListCache;
 import de.ctrlaltdel.jenkins.plugins.satellite.SatelliteConnection;
+import de.ctrlaltdel.jenkins.plugins.satellite.PackageRecord;
 import de.ctrlaltdel.jenkins.plugins.satellite.PluginConfiguration;
 
 /**
@@ -58,44 +57,22 @@ public class CleanPackagesBuilder extends Builder {
     }
 
     @Override
-    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, final BuildListener listener) throws InterruptedException, IOException {
         logBuild(listener);
         SatelliteConnection connection = null;
-        Pattern pattern = packagePattern != null ? Pattern.compile(packagePattern) : null;
+        final Pattern pattern = packagePattern != null ? Pattern.compile(packagePattern) : null;
 
-        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        
 //    I expect jenkins and satellite are in the same timezone              
 //        PluginConfiguration configuration = (PluginConfiguration) Jenkins.getInstance().getDescriptorOrDie(PluginConfiguration.class);
 //        TimeZone timeZone = TimeZone.getTimeZone(configuration.getTimezone()); 
 //        dateFormat.setTimeZone(timeZone);
         
-        Date today = Calendar.getInstance(/* timeZone */).getTime();
+        final Date today = Calendar.getInstance(/* timeZone */).getTime();
         
         connection = SatelliteConnection.create().logger(listener).login();
-        List<Map<String, Object>> packages = connection.listPackages(channel);
-        List<Integer> pkgIds = new ArrayList<Integer>();
-        
-        StringBuilder sb = new StringBuilder("[INFO] packages to remove:\n");
-        
-        for (Map<String, Object> pkgData : packages) {
-            String packageName = (String) pkgData.get(SatelliteConnection.ATTR_PKG_NAME);
-            if (pattern != null && !pattern.matcher(packageName).matches()) {
-                continue;
-            }
-            try {
-                String ds = (String) pkgData.get("last_modified_date");
-                Date date = dateFormat.parse(ds);
-                int diffInDays = (int)(today.getTime() - date.getTime()) / 86400000 ; // 1000 * 60 * 60 * 24
-                if (diffInDays < maxAge) {
-                    continue;
-                }
-            } catch (Exception x) {
-                listener.getLogger().println("[ERROR] " + x.getMessage() + " package " + packageName);
-            }
-            pkgIds.add((Integer) pkgData.get("id"));
-            sb.append("       ").append(packageName).append(" [").append(pkgData.get("id")).append("]\n");
-        }
+        Selection selection = new Selection(pattern, today.getTime(), maxAge, listener.getLogger());
+        connection.forEachPackage(channel, selection);
+        final List<Integer> pkgIds = selection.getIds();
         
         boolean result = false;
         try {
@@ -103,7 +80,7 @@ public class CleanPackagesBuilder extends Builder {
                 listener.getLogger().println("[INFO] found no packages to remove");
                 return true;
             }
-            listener.getLogger().print(sb.toString());
+            listener.getLogger().print(selection.getReport());
             result = connection.removePackages(channel, pkgIds);
             if (!result) {
                 listener.getLogger().println("[ERROR] remove packages failed");
@@ -118,6 +95,50 @@ public class CleanPackagesBuilder extends Builder {
     }
 
 
+    /**
+     * Selection, collects the packages matching the pattern and older than max. age
+     */
+    public static class Selection implements PackageRecord.Handler {
+        private final Pattern pattern;
+        private final long now;
+        private final int maxAge;
+        private final PrintStream logger;
+        private final List<Integer> ids = new ArrayList<Integer>();
+        private final StringBuilder report = new StringBuilder("[INFO] packages to remove:\n");
+
+        public Selection(Pattern pattern, long now, int maxAge, PrintStream logger) {
+            this.pattern = pattern;
+            this.now = now;
+            this.maxAge = maxAge;
+            this.logger = logger;
+        }
+
+        public void handle(PackageRecord pkgData) {
+            String packageName = pkgData.getPackageName();
+            if (pattern != null && !pattern.matcher(packageName).matches()) {
+                return;
+            }
+            if (pkgData.getLastModified() < 0) {
+                logger.println("[ERROR] invalid last_modified_date, package " + packageName);
+            } else {
+                long diffInDays = (now - pkgData.getLastModified()) / 86400000L; // 1000 * 60 * 60 * 24
+                if (diffInDays < maxAge) {
+                    return;
+                }
+            }
+            ids.add(pkgData.getId());
+            report.append("       ").append(packageName).append(" [").append(pkgData.getId()).append("]\n");
+        }
+
+        public List<Integer> getIds() {
+            return ids;
+        }
+
+        public String getReport() {
+            return report.toString();
+        }
+    }
+
     /**
      * logCmd
      */
@@ -162,7 +183,7 @@ public class CleanPackagesBuilder extends Builder {
         }
 
         public ListBoxModel doFillChannelItems() {
-            List<String> channels = SatelliteConnection.create().forOneCall().listChannels();
+            List<String> channels = ListCache.shared().getChannels();
             ListBoxModel listBoxModel = new ListBoxModel();
             for (String channel : channels) {
                 listBoxModel.add(channel);
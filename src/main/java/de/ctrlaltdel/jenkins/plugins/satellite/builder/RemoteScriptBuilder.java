@@ -33,6 +33,7 @@ import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.Session;
 
+import de.ctrlaltdel.jenkins.plugins.satellite.ListCache;
 import de.ctrlaltdel.jenkins.plugins.satellite.SatelliteConnection;
 import de.ctrlaltdel.jenkins.plugins.satellite.PluginConfiguration;
 
@@ -63,7 +64,7 @@ public class RemoteScriptBuilder extends Builder {
         logBuild(listener);
         String runtimeScript = setScriptVariables(listener.getLogger(), build.getBuildVariables());
         if (useSSH) {
-            for (String host : SatelliteConnection.create().forOneCall().listHosts(systemGroup)) {
+            for (String host : SatelliteConnection.create().forOneCall().logger(listener).listHosts(systemGroup)) {
                 int result = executeSSH(host, listener.getLogger(), runtimeScript);
                 if (result != 0) {
                     build.setResult(Result.FAILURE);
@@ -128,7 +129,7 @@ public class RemoteScriptBuilder extends Builder {
             jsch = new JSch();
         }
 
-        int port = 22;
+        int port = configuration.getSshPort();
 
         ChannelExec channel = null;
         Session session = null;
@@ -219,7 +220,7 @@ public class RemoteScriptBuilder extends Builder {
         }
 
         public ListBoxModel doFillSystemGroupItems() {
-            List<String> groups = SatelliteConnection.create().forOneCall().listGroups();
+            List<String> groups = ListCache.shared().getSystemGroups();
             ListBoxModel listBoxModel = new ListBoxModel();
             listBoxModel.add("");
             for (String group : groups) {
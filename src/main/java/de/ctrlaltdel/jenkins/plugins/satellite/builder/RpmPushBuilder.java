@@ -18,9 +18,10 @@ import hudson.util.ListBoxModel;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import net.sf.json.JSONObject;
 
@@ -30,7 +31,9 @@ import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
+import de.ctrlaltdel.jenkins.plugins.satellite.ListCache;
 import de.ctrlaltdel.jenkins.plugins.satellite.NVR;
+import de.ctrlaltdel.jenkins.plugins.satellite.PushPipeline;
 import de.ctrlaltdel.jenkins.plugins.satellite.SatelliteConnection;
 
 /**
@@ -43,11 +46,17 @@ public class RpmPushBuilder extends Builder {
 
     private final String artifacts;
     private final String channel;
+    private final int parallelUploads;
 
-    @DataBoundConstructor
     public RpmPushBuilder(String artifacts, String channel) {
+        this(artifacts, channel, 1);
+    }
+
+    @DataBoundConstructor
+    public RpmPushBuilder(String artifacts, String channel, int parallelUploads) {
         this.artifacts = artifacts == null ? DEFAULT_ARTEFACTS : artifacts;
         this.channel = channel;
+        this.parallelUploads = parallelUploads;
     }
 
     public BuildStepMonitor getRequiredMonitorService() {
@@ -81,19 +90,30 @@ public class RpmPushBuilder extends Builder {
                 return true;
             }
 
-            connection = SatelliteConnection.create().logger(listener).login();
+            List<FilePath> filePaths = new ArrayList<FilePath>(files.size());
+            for (String fileName : files.keySet()) {
+                filePaths.add(new FilePath(workspace, fileName));
+            }
+
+            List<NVR> pushed;
+            if (1 < parallelUploads) {
+                pushed = PushPipeline.create(parallelUploads).logger(listener).push(filePaths, channel);
+            } else {
+                connection = SatelliteConnection.create().logger(listener).login();
+                pushed = connection.pushAll(filePaths, channel);
+            }
 
             StringBuilder sb = new StringBuilder();
-            for (String fileName : files.keySet()) {
-                FilePath filePath = new FilePath(workspace, fileName);
-                NVR nvr = connection.push(filePath, channel);
+            for (NVR nvr : pushed) {
                 if (nvr == null) {
                     build.setResult(Result.FAILURE);
                     continue;
                 }
                 sb.append(nvr.getName()).append(',');
             }
-            build.getBuildVariables().put("RPM_NAME", sb.substring(0, sb.length() - 1));
+            if (0 < sb.length()) {
+                build.getBuildVariables().put("RPM_NAME", sb.substring(0, sb.length() - 1));
+            }
 
         } catch (IOException e) {
             Util.displayIOException(e, listener);
@@ -118,7 +138,8 @@ public class RpmPushBuilder extends Builder {
         }
 
         public Map<String, String> invoke(File basedir, VirtualChannel channel) throws IOException, InterruptedException {
-            Map<String, String> result = new HashMap<String, String>();
+            // sorted, so RPM_NAME does not depend on the order of the file system
+            Map<String, String> result = new TreeMap<String, String>();
             for (String fileName : Util.createFileSet(basedir, includes).getDirectoryScanner().getIncludedFiles()) {
                 fileName = fileName.replace(File.separatorChar, '/');
                 result.put(fileName, fileName);
@@ -145,6 +166,10 @@ public class RpmPushBuilder extends Builder {
         return channel;
     }
 
+    public int getParallelUploads() {
+        return parallelUploads;
+    }
+
     @Extension
     public static class DescriptorImpl extends BuildStepDescriptor<Builder> {
 
@@ -163,7 +188,7 @@ public class RpmPushBuilder extends Builder {
         }
 
         public ListBoxModel doFillChannelItems() {
-            List<String> channels = SatelliteConnection.create().forOneCall().listChannels();
+            List<String> channels = ListCache.shared().getChannels();
             ListBoxModel listBoxModel = new ListBoxModel();
             for (String channel : channels) {
                 listBoxModel.add(channel);
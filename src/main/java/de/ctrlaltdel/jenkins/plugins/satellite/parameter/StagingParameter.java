@@ -9,8 +9,10 @@ import hudson.util.ListBoxModel;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import javax.servlet.ServletException;
@@ -23,7 +25,10 @@ import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.export.Exported;
 
-import de.ctrlaltdel.jenkins.plugins.satellite.SatelliteConnection;
+import de.ctrlaltdel.jenkins.plugins.satellite.AsyncSatelliteConnection;
+import de.ctrlaltdel.jenkins.plugins.satellite.ChannelDiff;
+import de.ctrlaltdel.jenkins.plugins.satellite.ListCache;
+import de.ctrlaltdel.jenkins.plugins.satellite.PackageRecord;
 import de.ctrlaltdel.jenkins.plugins.satellite.builder.SatelliteTaskBuilder.AddPackageTaskParameter;
 import de.ctrlaltdel.jenkins.plugins.satellite.builder.SatelliteTaskBuilder.SatelliteTask;
 
@@ -33,7 +38,7 @@ import de.ctrlaltdel.jenkins.plugins.satellite.builder.SatelliteTaskBuilder.Sate
  */
 public class StagingParameter extends SimpleParameterDefinition {
     
-    private List<Map<String, Object>> packages;
+    private transient Map<String, Integer> packageIds;
     private final String sourceChannel;
     private final String targetChannel;
     private final String packagePattern;
@@ -56,51 +61,52 @@ public class StagingParameter extends SimpleParameterDefinition {
     @Override
     public ParameterValue createValue(StaplerRequest req, JSONObject jo) {
         StringParameterValue value = req.bindJSON(StringParameterValue.class, jo);
-        for (Map<String, Object> pkgData : packages) {
-            if (pkgData.get(SatelliteConnection.ATTR_PKG_NAME).equals(value.value)) {
-                return new StringParameterValue(value.getName(), new AddPackageTaskParameter(targetChannel, value.value, (Integer) pkgData.get("id")).toString());
-            }
+        Integer id = packageIds == null ? null : packageIds.get(value.value);
+        if (id == null) {
+            return null;
         }
-        return null;
+        return new StringParameterValue(value.getName(), new AddPackageTaskParameter(targetChannel, value.value, id).toString());
     }
 
     @Exported
     public List<String> getPackages() {
-        SatelliteConnection connection = SatelliteConnection.create().login();
-        packages = connection.listPackages(sourceChannel);
-        List<Map<String, Object>> targetPackages = connection.listPackages(targetChannel);
-        connection.logout();
-        
-        List<String> result = new ArrayList<String>(packages.size());
+        AsyncSatelliteConnection connection = AsyncSatelliteConnection.create();
+        Future<List<PackageRecord>> sourceFuture = connection.listPackages(sourceChannel);
+        Future<List<PackageRecord>> targetFuture = connection.listPackages(targetChannel);
+        List<PackageRecord> packages = AsyncSatelliteConnection.join(sourceFuture);
+        List<PackageRecord> targetPackages = AsyncSatelliteConnection.join(targetFuture);
+
+        // the first package of a name wins, like the scan by name did
+        Map<String, Integer> ids = new HashMap<String, Integer>(packages.size() * 4 / 3 + 1);
+        for (PackageRecord pkgData : packages) {
+            if (!ids.containsKey(pkgData.getPackageName())) {
+                ids.put(pkgData.getPackageName(), pkgData.getId());
+            }
+        }
+        packageIds = ids;
+
+        return filter(packages, targetPackages, packagePattern, includeSnapshots);
+    }
+
+    /**
+     * filter, names of the source packages matching the pattern and not yet in the target channel
+     */
+    public static List<String> filter(List<PackageRecord> packages, List<PackageRecord> targetPackages, String packagePattern, boolean includeSnapshots) {
+        List<PackageRecord> missing = ChannelDiff.between(packages, targetPackages).getMissing();
+        List<String> result = new ArrayList<String>(missing.size());
         Pattern pattern = StringUtils.isEmpty(packagePattern) ? null : Pattern.compile(packagePattern);
-        for (Map<String, Object> pkgData : packages) {
-            String packageName = (String) pkgData.get(SatelliteConnection.ATTR_PKG_NAME);
+        for (PackageRecord pkgData : missing) {
+            String packageName = pkgData.getPackageName();
             if (pattern != null && !pattern.matcher(packageName).matches()) {
                 continue;
             }
             if (!includeSnapshots && packageName.contains("SNAPSHOT")) {
                 continue;
             }
-            if (isInTarget(targetPackages, packageName)) {
-                continue;
-            }
             result.add(packageName);
         }
         return result;
     }
-    
-    /**
-     * isInTarget
-     */
-    private boolean isInTarget(List<Map<String, Object>> targetPackages, String packageName) {
-        for (Map<String, Object> pkgData : targetPackages) {
-            String targetPackageName = (String) pkgData.get(SatelliteConnection.ATTR_PKG_NAME);
-            if (targetPackageName.equals(packageName)) {
-                return true;
-            }
-        }
-        return false;
-    }
 
     public String getSourceChannel() {
         return sourceChannel;
@@ -125,16 +131,10 @@ public class StagingParameter extends SimpleParameterDefinition {
             return "Satellite Staging";
         }
 
-        private List<String> channels;
-        private ListBoxModel listBoxModel;
-
         private ListBoxModel getListBoxModel() {
-            if (listBoxModel == null) {
-                channels = SatelliteConnection.create().forOneCall().listChannels();
-                listBoxModel = new ListBoxModel();
-                for (String channel : channels) {
-                    listBoxModel.add(channel);
-                }
+            ListBoxModel listBoxModel = new ListBoxModel();
+            for (String channel : ListCache.shared().getChannels()) {
+                listBoxModel.add(channel);
             }
             return listBoxModel;
         }
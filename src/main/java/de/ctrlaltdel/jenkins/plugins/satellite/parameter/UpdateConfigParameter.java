@@ -13,6 +13,7 @@ import net.sf.json.JSONObject;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.StaplerRequest;
 
+import de.ctrlaltdel.jenkins.plugins.satellite.ListCache;
 import de.ctrlaltdel.jenkins.plugins.satellite.SatelliteConnection;
 import de.ctrlaltdel.jenkins.plugins.satellite.builder.SatelliteTaskBuilder.SatelliteTask;
 import de.ctrlaltdel.jenkins.plugins.satellite.builder.SatelliteTaskBuilder.UpdateConfigTaskParameter;
@@ -67,7 +68,7 @@ public class UpdateConfigParameter extends SimpleParameterDefinition {
         }
 
         public ListBoxModel doFillConfigChannelItems() {
-            List<String> channels = SatelliteConnection.create().forOneCall().listConfigChannels();
+            List<String> channels = ListCache.shared().getConfigChannels();
             firstChannel = channels.get(0);
             ListBoxModel listBoxModel = new ListBoxModel();
             for (String channel : channels) {
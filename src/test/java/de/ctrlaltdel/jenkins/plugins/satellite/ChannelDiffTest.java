@@ -0,0 +1,56 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * ChannelDiffTest
+ * @author ds
+ */
+public class ChannelDiffTest {
+
+    @Test
+    public void rpmvercmp() {
+        assertEquals(0, NVR.rpmvercmp("1.0", "1.0"));
+        assertEquals(0, NVR.rpmvercmp("1.01", "1.1"));
+        assertEquals(1, NVR.rpmvercmp("1.10", "1.9"));
+        assertEquals(-1, NVR.rpmvercmp("1.0", "1.0.1"));
+        assertEquals(1, NVR.rpmvercmp("1.0a", "1.0"));
+        assertEquals(1, NVR.rpmvercmp("2.0", "2.a"));
+        assertEquals(-1, NVR.rpmvercmp("1.0~rc1", "1.0"));
+        assertEquals(-1, NVR.rpmvercmp("1.0~rc1", "1.0~rc2"));
+        assertEquals(0, NVR.rpmvercmp("1_0", "1.0"));
+    }
+
+    @Test
+    public void between() {
+        List<PackageRecord> source = Arrays.asList(record(1, "app", "1.10", "1", ""), record(2, "app", "1.9", "1", ""),
+                record(3, "lib", "2.0", "1", ""), record(4, "tool", "1.0", "1", ""), record(5, "old", "1.0", "1", "1"));
+        List<PackageRecord> target = Arrays.asList(record(11, "app", "1.9", "1", ""), record(12, "lib", "2.0", "2", ""),
+                record(13, "gone", "1.0", "1", ""), record(14, "old", "2.0", "1", ""));
+
+        ChannelDiff diff = ChannelDiff.between(source, target);
+        assertEquals(Arrays.asList("app-1.10-1", "lib-2.0-1", "tool-1.0-1", "old-1.0-1"), names(diff.getMissing()));
+        assertEquals(Arrays.asList("lib-2.0-2", "gone-1.0-1", "old-2.0-1"), names(diff.getAdded()));
+        // the epoch wins over the version
+        assertEquals(Arrays.asList("app-1.10-1", "old-1.0-1"), names(diff.getNewer()));
+    }
+
+    private static PackageRecord record(int id, String name, String version, String release, String epoch) {
+        return new PackageRecord(id, name, version, release, epoch, "noarch", 0L, null);
+    }
+
+    private static List<String> names(List<PackageRecord> records) {
+        List<String> names = new ArrayList<String>();
+        for (PackageRecord record : records) {
+            names.add(record.getPackageName());
+        }
+        return names;
+    }
+
+}
@@ -0,0 +1,198 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Cause;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.ParameterDefinition;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.model.StringParameterDefinition;
+import hudson.model.StringParameterValue;
+import hudson.tasks.Builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import de.ctrlaltdel.jenkins.plugins.satellite.builder.CleanPackagesBuilder;
+import de.ctrlaltdel.jenkins.plugins.satellite.builder.RemoteScriptBuilder;
+import de.ctrlaltdel.jenkins.plugins.satellite.builder.RpmPushBuilder;
+import de.ctrlaltdel.jenkins.plugins.satellite.builder.SatelliteTaskBuilder;
+import de.ctrlaltdel.jenkins.plugins.satellite.builder.SatelliteTaskBuilder.UpdateConfigTaskParameter;
+import de.ctrlaltdel.jenkins.plugins.satellite.fake.FakeSatellite;
+import de.ctrlaltdel.jenkins.plugins.satellite.fake.FakeSshServer;
+
+/**
+ * LoadTest, runs concurrent builds of each builder against the {@link FakeSatellite} and the {@link FakeSshServer}
+ * and reports throughput, p50/p99 build duration, peak heap and Satellite logins per scenario.
+ * <p>
+ * Only runs with <code>-Dsatellite.loadtest=true</code>, the number of builds and the latency of the fakes are set with
+ * <code>-Dsatellite.loadtest.builds=20</code> and <code>-Dsatellite.loadtest.latency=20</code>.
+ *
+ * @author ds
+ */
+public class LoadTest {
+
+    static final int BUILDS = Integer.getInteger("satellite.loadtest.builds", 20);
+    static final long LATENCY = Long.getLong("satellite.loadtest.latency", 20L);
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private FakeSatellite satellite;
+    private FakeSshServer ssh;
+
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue(Boolean.getBoolean("satellite.loadtest"));
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        ssh = new FakeSshServer().latency(LATENCY).start();
+        satellite = new FakeSatellite().latency(LATENCY).seed("dev", new File("src/test/resources")).channel("prod").packages("big", 2000)
+                .configFile("app-config", "/etc/app.conf", "a=1").system("web", ssh.getHost()).start();
+        PluginConfiguration configuration = (PluginConfiguration) j.jenkins.getDescriptorOrDie(PluginConfiguration.class);
+        configuration.url(satellite.getUrl()).user(FakeSatellite.USER).password(FakeSatellite.PASSWORD).ssh(FakeSatellite.USER, FakeSatellite.PASSWORD).sshPort(ssh.getPort());
+        j.jenkins.setNumExecutors(BUILDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (satellite != null) {
+            satellite.stop();
+        }
+        if (ssh != null) {
+            ssh.stop();
+        }
+    }
+
+    @Test
+    public void rpmPush() throws Exception {
+        run("rpm-push", project("rpm-push", new CopyRpms(), new RpmPushBuilder("**/RPMS/noarch/**/*.rpm", "prod")));
+    }
+
+    @Test
+    public void cleanPackages() throws Exception {
+        run("clean-packages", project("clean-packages", new CleanPackagesBuilder("pkg-1.*", "big", 100000)));
+    }
+
+    @Test
+    public void remoteScript() throws Exception {
+        run("remote-script", project("remote-script", new RemoteScriptBuilder("web", "root", "uptime", false)));
+        run("remote-ssh", project("remote-ssh", new RemoteScriptBuilder("web", FakeSatellite.USER, "uptime", true)));
+    }
+
+    @Test
+    public void satelliteTask() throws Exception {
+        String parameter = new UpdateConfigTaskParameter("app-config", "/etc/app.conf", "a=2").toString();
+        run("satellite-task", project("satellite-task", new SatelliteTaskBuilder()), new StringParameterValue("UPDATE_CONFIG", parameter));
+    }
+
+    /**
+     * project, concurrent builds with a RUN parameter so the queue does not fold them
+     */
+    private FreeStyleProject project(String name, Builder... builders) throws IOException {
+        FreeStyleProject project = j.createFreeStyleProject(name);
+        project.setConcurrentBuild(true);
+        List<ParameterDefinition> parameters = new ArrayList<ParameterDefinition>();
+        parameters.add(new StringParameterDefinition("RUN", ""));
+        parameters.add(new StringParameterDefinition("UPDATE_CONFIG", ""));
+        project.addProperty(new ParametersDefinitionProperty(parameters));
+        for (Builder builder : builders) {
+            project.getBuildersList().add(builder);
+        }
+        return project;
+    }
+
+    /**
+     * run, schedules the builds at once and waits for all of them
+     */
+    private void run(String scenario, FreeStyleProject project, ParameterValue... parameters) throws Exception {
+        int logins = satellite.getCalls("auth.login");
+        HeapSampler heap = new HeapSampler();
+        heap.start();
+
+        long start = System.currentTimeMillis();
+        List<Future<FreeStyleBuild>> futures = new ArrayList<Future<FreeStyleBuild>>(BUILDS);
+        for (int i = 0; i < BUILDS; i++) {
+            List<ParameterValue> values = new ArrayList<ParameterValue>();
+            values.add(new StringParameterValue("RUN", String.valueOf(i)));
+            for (ParameterValue parameter : parameters) {
+                values.add(parameter);
+            }
+            futures.add(project.scheduleBuild2(0, new Cause.UserIdCause(), new ParametersAction(values)));
+        }
+        LatencyHistogram durations = new LatencyHistogram();
+        for (Future<FreeStyleBuild> future : futures) {
+            FreeStyleBuild build = j.assertBuildStatusSuccess(future);
+            durations.record(build.getDuration());
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        heap.interrupt();
+        heap.join();
+
+        System.out.println(String.format("[LOADTEST] %-15s builds=%d throughput=%.2f/s p50=%dms p99=%dms peakHeap=%dMB logins=%d",
+                scenario, BUILDS, BUILDS * 1000.0 / elapsed, durations.getPercentile(50), durations.getPercentile(99),
+                heap.peak / (1024 * 1024), satellite.getCalls("auth.login") - logins));
+    }
+
+    /**
+     * CopyRpms, puts the test rpms into the workspace of the build
+     */
+    private static class CopyRpms extends TestBuilder {
+        @Override
+        public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+            for (File file : new File("src/test/resources").listFiles()) {
+                if (file.getName().endsWith(".rpm")) {
+                    build.getWorkspace().child("RPMS/noarch/" + file.getName()).copyFrom(new FilePath(file));
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * HeapSampler, tracks the peak heap usage while the scenario runs
+     */
+    private static class HeapSampler extends Thread {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private volatile long peak;
+
+        HeapSampler() {
+            super("heap-sampler");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                peak = Math.max(peak, memory.getHeapMemoryUsage().getUsed());
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException x) {
+                    return;
+                }
+            }
+        }
+    }
+
+}
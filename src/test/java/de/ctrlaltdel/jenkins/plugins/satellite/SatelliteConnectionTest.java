@@ -0,0 +1,693 @@
+package de.ctrlaltdel.jenkins.plugins.satellite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import hudson.FilePath;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ctrlaltdel.jenkins.plugins.satellite.fake.FakeSatellite;
+
+/**
+ * SatelliteConnectionTest, runs the connection against the {@link FakeSatellite}
+ * @author ds
+ */
+public class SatelliteConnectionTest {
+
+    private FakeSatellite satellite;
+    private PluginConfiguration configuration;
+
+    @Before
+    public void setUp() throws Exception {
+        satellite = new FakeSatellite().seed("dev", new File("src/test/resources")).channel("prod").packages("big", 500)
+                .configFile("app-config", "/etc/app.conf", "a=1").system("web", "web1.local").system("web", "web2.local").start();
+        configuration = new PluginConfiguration().url(satellite.getUrl()).user(FakeSatellite.USER).password(FakeSatellite.PASSWORD);
+    }
+
+    @After
+    public void tearDown() {
+        configuration.getSessionPool().clear();
+        satellite.stop();
+    }
+
+    @Test
+    public void listChannelsAndPackages() {
+        SatelliteConnection connection = SatelliteConnection.from(configuration).login();
+        try {
+            assertEquals(Arrays.asList("dev", "prod", "big"), connection.listChannels());
+            assertEquals(7, connection.listPackages("dev").size());
+            assertEquals(500, connection.listPackages("big").size());
+        } finally {
+            connection.logout();
+        }
+    }
+
+    @Test
+    public void pushAll() {
+        // the rpms are in the seeded channel already
+        configuration.skipPresentPackages(false);
+        List<FilePath> filePaths = new ArrayList<FilePath>();
+        for (String name : new String[] { "sample-app-1.1-1.noarch.rpm", "sample-app-1.2-1.noarch.rpm" }) {
+            filePaths.add(new FilePath(new File("src/test/resources", name)));
+        }
+        SatelliteConnection connection = SatelliteConnection.from(configuration).login();
+        try {
+            List<NVR> pushed = connection.pushAll(filePaths, "prod");
+            assertEquals(2, pushed.size());
+        } finally {
+            connection.logout();
+        }
+        assertEquals(Arrays.asList("sample-app-1.1-1", "sample-app-1.2-1"), satellite.getPackageNames("prod"));
+        assertEquals(2, satellite.getCalls("PACKAGE-PUSH"));
+        assertEquals(2, satellite.getCalls("packages.findByNvrea"));
+
+        // the ids are known now
+        connection = SatelliteConnection.from(configuration).login();
+        try {
+            connection.pushAll(filePaths, "dev");
+        } finally {
+            connection.logout();
+        }
+        assertEquals(2, satellite.getCalls("packages.findByNvrea"));
+    }
+
+    @Test
+    public void pushAfterIndexedPackageWasDeleted() {
+        configuration.skipPresentPackages(false);
+        List<FilePath> filePaths = Arrays.asList(new FilePath(new File("src/test/resources", "sample-app-1.1-1.noarch.rpm")));
+        SatelliteConnection connection = SatelliteConnection.from(configuration).login();
+        try {
+            connection.pushAll(filePaths, "prod");
+            assertEquals(1, satellite.getCalls("packages.findByNvrea"));
+
+            // deleted by others, the id in the package index is stale
+            satellite.delete("sample-app", "1.1", "1");
+            List<NVR> pushed = connection.pushAll(filePaths, "prod");
+            assertEquals("sample-app-1.1-1", pushed.get(0).toString());
+        } finally {
+            connection.logout();
+        }
+        assertEquals(Arrays.asList("sample-app-1.1-1"), satellite.getPackageNames("prod"));
+        assertEquals(2, satellite.getCalls("packages.findByNvrea"));
+        // the rejected call with the stale id and the retry
+        assertEquals(3, satellite.getCalls("channel.software.addPackages"));
+    }
+
+    @Test
+    public void pushSkipsPresentPackages() throws Exception {
+        List<FilePath> filePaths = new ArrayList<FilePath>();
+        for (String name : new String[] { "sample-app-1.1-1.noarch.rpm", "sample-app-1.2-1.noarch.rpm" }) {
+            filePaths.add(new FilePath(new File("src/test/resources", name)));
+        }
+        SatelliteConnection connection = SatelliteConnection.from(configuration).login();
+        try {
+            assertEquals(2, connection.pushAll(filePaths, "prod").size());
+        } finally {
+            connection.logout();
+        }
+        assertEquals(Arrays.asList("sample-app-1.1-1", "sample-app-1.2-1"), satellite.getPackageNames("prod"));
+        assertEquals(0, satellite.getCalls("PACKAGE-PUSH"));
+        assertEquals(2, satellite.getCalls("packages.getDetails"));
+
+        List<NVR> pushed = new PushPipeline(configuration, 2).push(filePaths, "big");
+        assertEquals("sample-app-1.1-1", pushed.get(0).toString());
+        assertEquals(0, satellite.getCalls("PACKAGE-PUSH"));
+    }
+
+    @Test
+    public void pushPipeline() throws Exception {
+        configuration.skipPresentPackages(false);
+        List<FilePath> filePaths = new ArrayList<FilePath>();
+        for (String name : new String[] { "sample-app-1.2-1.noarch.rpm", "missing-1.0-1.noarch.rpm", "sample-app-1.1-1.noarch.rpm" }) {
+            filePaths.add(new FilePath(new File("src/test/resources", name)));
+        }
+        List<NVR> pushed = new PushPipeline(configuration, 2).push(filePaths, "prod");
+        assertEquals("sample-app-1.2-1", pushed.get(0).toString());
+        assertEquals(null, pushed.get(1));
+        assertEquals("sample-app-1.1-1", pushed.get(2).toString());
+        // the channel has the order of completion
+        assertEquals(new TreeSet<String>(Arrays.asList("sample-app-1.1-1", "sample-app-1.2-1")), new TreeSet<String>(satellite.getPackageNames("prod")));
+    }
+
+    @Test
+    public void pushWithSha256() {
+        configuration.sha256Checksums(true);
+        SatelliteConnection connection = SatelliteConnection.from(configuration).login();
+        try {
+            assertEquals("sample-app-1.1-1", connection.push(new FilePath(new File("src/test/resources", "sample-app-1.1-1.noarch.rpm")), "prod").toString());
+        } finally {
+            connection.logout();
+        }
+        assertEquals(Arrays.asList("sample-app-1.1-1"), satellite.getPackageNames("prod"));
+    }
+
+    @Test
+    public void agentUpload() throws Exception {
+        FilePath rpm = new FilePath(new File("src/test/resources", "sample-app-1.1-1.noarch.rpm"));
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("X-RHN-Upload-File-Checksum-Type", RpmDigest.SHA256);
+        SessionPool.Session session = configuration.getSessionPool().borrow();
+        try {
+            headers.put("X-RHN-Upload-Auth-Session", session.getAuth());
+            AgentUpload.Response response = rpm.act(new AgentUpload(satellite.getUrl() + "/PACKAGE-PUSH", headers, RpmDigest.SHA256, configuration));
+            assertEquals(200, response.getStatus());
+            assertEquals(null, response.getFailure());
+        } finally {
+            configuration.getSessionPool().release(session);
+        }
+        headers.put("X-RHN-Upload-Auth-Session", "invalid");
+        AgentUpload.Response response = rpm.act(new AgentUpload(satellite.getUrl() + "/PACKAGE-PUSH", headers, RpmDigest.SHA256, configuration));
+        assertEquals(403, response.getStatus());
+        assertTrue(response.getFailure(), response.getFailure().contains("invalid session"));
+        assertEquals(1, satellite.getCalls("PACKAGE-PUSH"));
+    }
+
+    @Test
+    public void stalledAgentUploadTimesOut() throws Exception {
+        configuration.timeouts(5, 1, 5);
+        FilePath rpm = new FilePath(new File("src/test/resources", "sample-app-1.1-1.noarch.rpm"));
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("X-RHN-Upload-File-Checksum-Type", RpmDigest.SHA256);
+        headers.put("X-RHN-Upload-Auth-Session", "invalid");
+        satellite.stallNext(1, 3000);
+        long start = System.currentTimeMillis();
+        try {
+            rpm.act(new AgentUpload(satellite.getUrl() + "/PACKAGE-PUSH", headers, RpmDigest.SHA256, configuration));
+            fail("upload succeeded");
+        } catch (IOException x) {
+            // expected, read timeout
+        }
+        assertTrue(System.currentTimeMillis() - start < 3000);
+    }
+
+    @Test
+    public void rpmHeader() throws Exception {
+        File file = new File("src/test/resources", "sample-app-1.0-SNAPSHOT20131116112523.noarch.rpm");
+        RpmHeader header = new FilePath(file).act(new RpmHeader.Reader(RpmDigest.MD5));
+        assertEquals("sample-app", header.getName());
+        assertEquals("1.0", header.getVersion());
+        assertEquals("SNAPSHOT20131116112523", header.getRelease());
+        assertEquals("", header.getEpoch());
+        assertEquals("noarch", header.getArch());
+        assertEquals(file.length(), header.getLength());
+        assertEquals(32, header.getChecksum().length());
+        try {
+            RpmHeader.read(new File("pom.xml"));
+            assertTrue(false);
+        } catch (IOException x) {
+            assertTrue(x.getMessage(), x.getMessage().contains("not an rpm"));
+        }
+    }
+
+    @Test
+    public void nvrOfRpmName() {
+        NVR nvr = new NVR("kernel-tools-3.10.0-1160.el7.x86_64.rpm");
+        assertEquals("kernel-tools", nvr.getName());
+        assertEquals("3.10.0", nvr.getVersion());
+        assertEquals("1160.el7", nvr.getRelease());
+        assertEquals("x86_64", nvr.getArch());
+        assertEquals(null, new NVR("sample-app-1.1-1").getArch());
+    }
+
+    @Test
+    public void transientFailuresAreRetried() {
+        SatelliteConnection connection = SatelliteConnection.from(configuration).login();
+        try {
+            satellite.failNext(2, 503);
+            assertEquals(3, connection.listChannels().size());
+        } finally {
+            connection.logout();
+        }
+    }
+
+    @Test
+    public void circuitBreakerOpensAndProbes() throws Exception {
+        // open longer than the first backoff, so the retry is failed fast
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 1000);
+        configuration.circuitBreaker(circuitBreaker);
+        SatelliteConnection connection = SatelliteConnection.from(configuration).login();
+        try {
+            satellite.failNext(1, 503);
+            assertFails(connection);
+            assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+            // open, no request reaches Satellite
+            assertFails(connection);
+            assertEquals(0, satellite.getCalls("channel.listMyChannels"));
+
+            // a failed probe opens the circuit again
+            Thread.sleep(1100);
+            satellite.failNext(1, 503);
+            assertFails(connection);
+            assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+            // a successful probe closes it
+            Thread.sleep(1100);
+            assertEquals(3, connection.listChannels().size());
+            assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+            assertEquals(1, satellite.getCalls("channel.listMyChannels"));
+        } finally {
+            connection.logout();
+        }
+    }
+
+    @Test
+    public void stalledResponseTimesOut() {
+        configuration.timeouts(5, 1, 5);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 10000);
+        configuration.circuitBreaker(circuitBreaker);
+        SatelliteConnection connection = SatelliteConnection.from(configuration).login();
+        try {
+            satellite.stallNext(1, 3000);
+            long start = System.currentTimeMillis();
+            assertFails(connection);
+            assertTrue(System.currentTimeMillis() - start < 3000);
+            assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+            assertEquals(0, configuration.getGovernor().getInFlight(Governor.Kind.RPC));
+        } finally {
+            connection.logout();
+        }
+    }
+
+    private static void assertFails(SatelliteConnection connection) {
+        try {
+            connection.listChannels();
+            fail("listChannels succeeded");
+        } catch (IllegalStateException x) {
+            // expected
+        }
+    }
+
+    @Test
+    public void governorLimitsConcurrentCalls() throws Exception {
+        final Governor governor = configuration.getGovernor();
+        governor.limit(2, 1);
+        satellite.latency(200);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 6; i++) {
+            Thread thread = new Thread() {
+                public void run() {
+                    SatelliteConnection.from(configuration).forOneCall().listChannels();
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        int maxInFlight = 0;
+        int maxQueued = 0;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                maxInFlight = Math.max(maxInFlight, governor.getInFlight(Governor.Kind.RPC));
+                maxQueued = Math.max(maxQueued, governor.getQueueLength(Governor.Kind.RPC));
+                Thread.sleep(5);
+            }
+        }
+        assertEquals(2, maxInFlight);
+        assertTrue(0 < maxQueued);
+        assertEquals(6, satellite.getCalls("channel.listMyChannels"));
+    }
+
+    @Test
+    public void governorServesJobsInTurn() throws Exception {
+        final Governor governor = configuration.getGovernor();
+        governor.limit(1, 1);
+        Governor.Permit held = governor.acquire(Governor.Kind.RPC);
+
+        // a big job queues six requests, a small job two requests after them
+        final List<String> served = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (String job : new String[] { "big", "big", "big", "big", "big", "big", "small", "small" }) {
+            Thread thread = queue(governor, job, served);
+            threads.add(thread);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (governor.getQueueLength(Governor.Kind.RPC) < threads.size() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+        }
+        held.release();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        assertEquals(Arrays.asList("big", "small", "big", "small", "big", "big", "big", "big"), served);
+        assertEquals(0, governor.getInFlight(Governor.Kind.RPC));
+    }
+
+    private static Thread queue(final Governor governor, final String job, final List<String> served) {
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    Governor.Permit permit = governor.acquire(Governor.Kind.RPC, job);
+                    served.add(job);
+                    permit.release();
+                } catch (InterruptedException x) {
+                    // ends the test thread
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void governorLimitChangesInPlace() throws Exception {
+        final Governor governor = configuration.getGovernor();
+        governor.limit(2, 1);
+        Governor.Permit first = governor.acquire(Governor.Kind.RPC);
+        Governor.Permit second = governor.acquire(Governor.Kind.RPC);
+
+        // lowering the limit keeps the permits in use, they go back to the same governor
+        governor.limit(1, 1);
+        assertEquals(2, governor.getInFlight(Governor.Kind.RPC));
+        first.release();
+        second.release();
+        assertEquals(0, governor.getInFlight(Governor.Kind.RPC));
+
+        Governor.Permit only = governor.acquire(Governor.Kind.RPC);
+        Thread waiting = new Thread() {
+            public void run() {
+                try {
+                    governor.acquire(Governor.Kind.RPC).release();
+                } catch (InterruptedException x) {
+                    // ends the test thread
+                }
+            }
+        };
+        waiting.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (governor.getQueueLength(Governor.Kind.RPC) == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, governor.getQueueLength(Governor.Kind.RPC));
+        only.release();
+        waiting.join(5000);
+        assertEquals(0, governor.getInFlight(Governor.Kind.RPC));
+        assertSame(governor, configuration.getGovernor());
+    }
+
+    @Test
+    public void prometheusBucketsAreInclusive() {
+        SatelliteMetrics metrics = new SatelliteMetrics();
+        metrics.record("channel.listSoftwareChannels", 4, false);
+        metrics.record("channel.listSoftwareChannels", 1024, false);
+        metrics.record("channel.listSoftwareChannels", 1025, false);
+        String prometheus = metrics.toPrometheus();
+        String bucket = "satellite_request_duration_seconds_bucket{method=\"channel.listSoftwareChannels\",le=";
+        assertTrue(prometheus, prometheus.contains(bucket + "\"0.002\"} 0\n"));
+        assertTrue(prometheus, prometheus.contains(bucket + "\"0.004\"} 1\n"));
+        assertTrue(prometheus, prometheus.contains(bucket + "\"0.512\"} 1\n"));
+        assertTrue(prometheus, prometheus.contains(bucket + "\"1.024\"} 2\n"));
+        assertTrue(prometheus, prometheus.contains(bucket + "\"2.048\"} 3\n"));
+    }
+
+    @Test
+    public void gzipResponses() {
+        SatelliteConnection connection = SatelliteConnection.from(configuration).login();
+        try {
+            assertEquals(500, connection.listPackages("big").size());
+        } finally {
+            connection.logout();
+        }
+        SatelliteMetrics.CompressionMetrics compression = configuration.getMetrics().getCompression();
+        assertTrue(compression.getResponseWireBytes() < compression.getResponseBytes());
+        assertTrue(0 < compression.getBytesSaved());
+        assertTrue(configuration.getMetrics().toPrometheus().contains("satellite_compression_wire_bytes_total{direction=\"response\"} "
+                + compression.getResponseWireBytes()));
+    }
+
+    @Test
+    public void uncompressedResponses() {
+        satellite.gzip(false);
+        SatelliteConnection connection = SatelliteConnection.from(configuration).login();
+        try {
+            assertEquals(500, connection.listPackages("big").size());
+            assertEquals(3, connection.listChannels().size());
+        } finally {
+            connection.logout();
+        }
+        SatelliteMetrics.CompressionMetrics compression = configuration.getMetrics().getCompression();
+        assertTrue(0 < compression.getResponseBytes());
+        assertEquals(compression.getResponseBytes(), compression.getResponseWireBytes());
+    }
+
+    @Test
+    public void compressedRequestsFallBackOn415() {
+        satellite.gzip(false);
+        configuration.gzipRequests(true);
+        SatelliteConnection connection = SatelliteConnection.from(configuration).login();
+        try {
+            // the login is sent again uncompressed, compression stays off
+            assertEquals(3, connection.listChannels().size());
+        } finally {
+            connection.logout();
+        }
+        assertEquals(1, satellite.getCalls("auth.login"));
+        assertFalse(configuration.getConnectionPool().getCompression().isGzipRequests());
+    }
+
+    @Test
+    public void compressedRequestsKeptOnServerErrors() {
+        configuration.gzipRequests(true);
+        SatelliteConnection connection = SatelliteConnection.from(configuration).login();
+        try {
+            satellite.failNext(1, 500);
+            assertEquals(3, connection.listChannels().size());
+        } finally {
+            connection.logout();
+        }
+        assertTrue(configuration.getConnectionPool().getCompression().isGzipRequests());
+        SatelliteMetrics.CompressionMetrics compression = configuration.getMetrics().getCompression();
+        assertTrue(compression.getRequestWireBytes() < compression.getRequestBytes());
+    }
+
+    @Test
+    public void rejectedChangesAreNotSentAgain() {
+        configuration.gzipRequests(true);
+        SatelliteConnection connection = SatelliteConnection.from(configuration).login();
+        try {
+            List<Integer> ids = new ArrayList<Integer>();
+            for (PackageRecord record : connection.listPackages("dev")) {
+                ids.add(record.getId());
+            }
+            satellite.gzip(false);
+            try {
+                connection.addPackages("prod", ids);
+                fail("addPackages was sent again");
+            } catch (IllegalStateException x) {
+                // expected
+            }
+            assertEquals(0, satellite.getCalls("channel.software.addPackages"));
+            assertFalse(configuration.getConnectionPool().getCompression().isGzipRequests());
+
+            assertTrue(connection.addPackages("prod", ids));
+            assertEquals(1, satellite.getCalls("channel.software.addPackages"));
+        } finally {
+            connection.logout();
+        }
+    }
+
+    @Test
+    public void expiredSessionIsRenewed() {
+        SatelliteConnection connection = SatelliteConnection.from(configuration).login();
+        try {
+            satellite.expireSessions();
+            assertEquals(3, connection.listChannels().size());
+            assertEquals(2, satellite.getCalls("auth.login"));
+        } finally {
+            connection.logout();
+        }
+    }
+
+    @Test
+    public void removePackagesWithoutMulticall() {
+        satellite.multicall(false);
+        SatelliteConnection connection = SatelliteConnection.from(configuration).login();
+        try {
+            List<Integer> ids = new ArrayList<Integer>();
+            for (PackageRecord record : connection.listPackages("big").subList(0, 10)) {
+                ids.add(record.getId());
+            }
+            assertTrue(connection.removePackages("big", ids));
+            assertEquals(490, connection.listPackages("big").size());
+            assertEquals(10, satellite.getCalls("packages.removePackage"));
+        } finally {
+            connection.logout();
+        }
+    }
+
+    @Test
+    public void incrementalSync() {
+        SatelliteConnection connection = SatelliteConnection.from(configuration).login();
+        try {
+            assertEquals(500, connection.listPackages("big").size());
+            long fullBytes = configuration.getMetrics().get("channel.software.listAllPackages").getBytesReceived();
+
+            List<FilePath> filePaths = new ArrayList<FilePath>();
+            filePaths.add(new FilePath(new File("src/test/resources", "sample-app-1.1-1.noarch.rpm")));
+            filePaths.add(new FilePath(new File("src/test/resources", "sample-app-1.2-1.noarch.rpm")));
+            connection.pushAll(filePaths, "big");
+            assertEquals(502, connection.listPackages("big").size());
+            long deltaBytes = configuration.getMetrics().get("channel.software.listAllPackages").getBytesReceived() - fullBytes;
+            assertTrue("delta of " + deltaBytes + " bytes", deltaBytes * 10 < fullBytes);
+
+            // removals by others show up after the reconcile
+            satellite.unlink("big", 5);
+            assertEquals(502, connection.listPackages("big").size());
+            configuration.getChannelIndex().invalidate("big");
+            assertEquals(497, connection.listPackages("big").size());
+        } finally {
+            connection.logout();
+        }
+    }
+
+    @Test
+    public void channelIndexSurvivesRestart() throws Exception {
+        File directory = File.createTempFile("satellite-index", "");
+        directory.delete();
+        SatelliteConnection connection = SatelliteConnection.from(configuration).login();
+        try {
+            ChannelIndex index = new ChannelIndex(3600000L, new ChannelStore(directory, satellite.getUrl()));
+            List<PackageRecord> packages = index.packages(connection, "big");
+            index.removed("big", Arrays.asList(packages.get(0).getId(), packages.get(1).getId()));
+            assertEquals(1, satellite.getCalls("channel.software.listAllPackages"));
+
+            // restart, restored from disk and brought up to date with a delta
+            index = new ChannelIndex(3600000L, new ChannelStore(directory, satellite.getUrl()));
+            assertEquals(498, index.packages(connection, "big").size());
+            assertEquals(2, satellite.getCalls("channel.software.listAllPackages"));
+
+            // a torn frame at the end of the log is cut off
+            FileOutputStream log = new FileOutputStream(new File(directory, "big.log"), true);
+            log.write(new byte[] { 0, 0, 1, 0, 7 });
+            log.close();
+            index = new ChannelIndex(3600000L, new ChannelStore(directory, satellite.getUrl()));
+            assertEquals(498, index.packages(connection, "big").size());
+
+            // a corrupt snapshot is dropped, the channel is read again
+            RandomAccessFile snapshot = new RandomAccessFile(new File(directory, "big.snapshot"), "rw");
+            snapshot.seek(100);
+            snapshot.write(snapshot.read() ^ 0xff);
+            snapshot.close();
+            index = new ChannelIndex(3600000L, new ChannelStore(directory, satellite.getUrl()));
+            assertEquals(500, index.packages(connection, "big").size());
+        } finally {
+            connection.logout();
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void channelStoreSkipsFramesOfOlderSnapshot() throws Exception {
+        File directory = File.createTempFile("satellite-index", "");
+        directory.delete();
+        try {
+            ChannelStore store = new ChannelStore(directory, satellite.getUrl());
+            Map<Integer, PackageRecord> packages = new HashMap<Integer, PackageRecord>();
+            packages.put(1, new PackageRecord(1, "a", "1.0", "1", "", "noarch", 1000L, "aa"));
+            packages.put(2, new PackageRecord(2, "b", "1.0", "1", "", "noarch", 1000L, "bb"));
+            store.write("c", packages, 1000L, 1000L);
+            store.appendRemoved("c", Arrays.asList(1), 1100L);
+
+            // crash after the new snapshot was renamed into place, before the old log was deleted
+            File log = new File(directory, "c.log");
+            File kept = new File(directory, "c.log.kept");
+            assertTrue(log.renameTo(kept));
+            store.write("c", packages, 2000L, 2000L);
+            assertTrue(kept.renameTo(log));
+
+            ChannelStore.Snapshot snapshot = store.load("c");
+            assertEquals(new TreeSet<Integer>(Arrays.asList(1, 2)), new TreeSet<Integer>(snapshot.packages.keySet()));
+            assertEquals(2000L, snapshot.synced);
+
+            // frames of the new snapshot still apply
+            store.appendRemoved("c", Arrays.asList(2), 2100L);
+            snapshot = store.load("c");
+            assertEquals(new TreeSet<Integer>(Arrays.asList(1)), new TreeSet<Integer>(snapshot.packages.keySet()));
+            assertEquals(2100L, snapshot.synced);
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void listCacheServesStaleWhileRefreshing() throws Exception {
+        ListCache cache = new ListCache(configuration, 100);
+        assertEquals(3, cache.getChannels().size());
+        assertEquals(3, cache.getChannels().size());
+        assertEquals(1, satellite.getCalls("channel.listMyChannels"));
+
+        satellite.channel("new");
+        Thread.sleep(150);
+        assertEquals(3, cache.getChannels().size());
+        for (int i = 0; i < 100 && cache.getChannels().size() < 4; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(4, cache.getChannels().size());
+        assertEquals(2, satellite.getCalls("channel.listMyChannels"));
+
+        cache.invalidate();
+        satellite.channel("newer");
+        assertEquals(5, cache.getChannels().size());
+    }
+
+    @Test
+    public void configContentsAreRevalidated() throws Exception {
+        assertEquals("a=1", SatelliteConnection.from(configuration).forOneCall().readConfig("app-config", "/etc/app.conf"));
+        assertEquals("a=1", SatelliteConnection.from(configuration).forOneCall().readConfig("app-config", "/etc/app.conf"));
+        assertEquals(1, satellite.getCalls("configchannel.lookupFileInfo"));
+
+        SatelliteConnection.from(configuration).forOneCall().updateConfig("app-config", "/etc/app.conf", "a=2");
+        assertEquals("a=2", SatelliteConnection.from(configuration).forOneCall().readConfig("app-config", "/etc/app.conf"));
+        assertEquals(1, satellite.getCalls("configchannel.lookupFileInfo"));
+
+        // modified by others, last_modified has a resolution of seconds
+        Thread.sleep(1100);
+        satellite.configFile("app-config", "/etc/app.conf", "a=3");
+        assertEquals("a=3", SatelliteConnection.from(configuration).forOneCall().readConfig("app-config", "/etc/app.conf"));
+        assertEquals(2, satellite.getCalls("configchannel.lookupFileInfo"));
+    }
+
+    @Test
+    public void groupMembersAreCached() {
+        SatelliteConnection.from(configuration).forOneCall().remoteScript("web", "root", "uptime");
+        assertEquals(Arrays.asList("web1.local", "web2.local"), SatelliteConnection.from(configuration).forOneCall().listHosts("web"));
+        assertEquals(1, satellite.getCalls("systemgroup.listSystems"));
+
+        satellite.system("web", "web3.local");
+        configuration.getGroupCache().invalidate("web");
+        assertEquals(Arrays.asList("web1.local", "web2.local", "web3.local"), SatelliteConnection.from(configuration).forOneCall().listHosts("web"));
+        assertEquals(2, satellite.getCalls("systemgroup.listSystems"));
+    }
+
+    @Test
+    public void updateConfigAndRemoteScript() {
+        SatelliteConnection.from(configuration).forOneCall().updateConfig("app-config", "/etc/app.conf", "a=2");
+        assertEquals("a=2", satellite.getConfigContents("app-config", "/etc/app.conf"));
+
+        SatelliteConnection.from(configuration).forOneCall().remoteScript("web", "root", "uptime");
+        assertEquals(Arrays.asList("#!/bin/sh\nuptime"), satellite.getScripts());
+    }
+
+}
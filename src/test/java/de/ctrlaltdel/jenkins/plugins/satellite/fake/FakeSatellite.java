@@ -0,0 +1,777 @@
+package de.ctrlaltdel.jenkins.plugins.satellite.fake;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * FakeSatellite, in-process stand-in for the Satellite XML-RPC API and <code>/PACKAGE-PUSH</code>.
+ * <p>
+ * Covers the <code>auth</code>, <code>channel</code>, <code>packages</code>, <code>configchannel</code>,
+ * <code>systemgroup</code> and <code>system</code> methods used by the plugin. Latency, injected failures
+ * and the size of the dataset are configurable:
+ * <pre>
+ * FakeSatellite satellite = new FakeSatellite().latency(20).seed("dev", new File("src/test/resources")).start();
+ * PluginConfiguration configuration = new PluginConfiguration().url(satellite.getUrl()).user(FakeSatellite.USER).password(FakeSatellite.PASSWORD);
+ * </pre>
+ *
+ * @author ds
+ */
+public class FakeSatellite {
+
+    public static final String USER = "jenkins";
+    public static final String PASSWORD = "jenkins";
+
+    static final String DATE_PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    private volatile long latency;
+    private volatile boolean multicall = true;
+    private volatile boolean gzip = true;
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile int failureStatus = 503;
+    private final AtomicInteger faults = new AtomicInteger();
+    private volatile double failureRate;
+    private final AtomicInteger stalls = new AtomicInteger();
+    private volatile long stallMillis;
+    private final Random random = new Random(4711);
+
+    private final AtomicInteger sequence = new AtomicInteger(1000);
+    private final Set<String> sessions = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ConcurrentMap<Integer, Package> packages = new ConcurrentHashMap<Integer, Package>();
+    // package ids of a channel and when they were added to it
+    private final Map<String, Map<Integer, Date>> channels = new LinkedHashMap<String, Map<Integer, Date>>();
+    private final Map<String, Map<String, ConfigFile>> configChannels = new LinkedHashMap<String, Map<String, ConfigFile>>();
+    private final Map<String, Map<Integer, String>> groups = new LinkedHashMap<String, Map<Integer, String>>();
+    private final ConcurrentMap<String, AtomicInteger> calls = new ConcurrentHashMap<String, AtomicInteger>();
+    private final List<String> scripts = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * latency added to every request in milliseconds
+     */
+    public FakeSatellite latency(long millis) {
+        this.latency = millis;
+        return this;
+    }
+
+    /**
+     * multicall, false answers <code>system.multicall</code> with a fault like old Satellite versions
+     */
+    public FakeSatellite multicall(boolean supported) {
+        this.multicall = supported;
+        return this;
+    }
+
+    /**
+     * gzip, false ignores <code>Accept-Encoding</code> and rejects compressed requests
+     */
+    public FakeSatellite gzip(boolean supported) {
+        this.gzip = supported;
+        return this;
+    }
+
+    /**
+     * failNext, the next requests fail with the HTTP status
+     */
+    public FakeSatellite failNext(int count, int status) {
+        failureStatus = status;
+        failures.set(count);
+        return this;
+    }
+
+    /**
+     * stallNext, the next requests are answered after the time in milliseconds
+     */
+    public FakeSatellite stallNext(int count, long millis) {
+        stallMillis = millis;
+        stalls.set(count);
+        return this;
+    }
+
+    /**
+     * faultNext, the next XML-RPC calls are answered with a fault
+     */
+    public FakeSatellite faultNext(int count) {
+        faults.set(count);
+        return this;
+    }
+
+    /**
+     * failureRate, fraction of requests failing with HTTP 503
+     */
+    public FakeSatellite failureRate(double rate) {
+        this.failureRate = rate;
+        return this;
+    }
+
+    /**
+     * expireSessions, all session keys become invalid
+     */
+    public FakeSatellite expireSessions() {
+        sessions.clear();
+        return this;
+    }
+
+    /**
+     * channel, creates an empty channel
+     */
+    public synchronized FakeSatellite channel(String label) {
+        if (!channels.containsKey(label)) {
+            channels.put(label, new LinkedHashMap<Integer, Date>());
+        }
+        return this;
+    }
+
+    /**
+     * packages, adds generated packages to the channel, added to it one hour apart in the past
+     */
+    public synchronized FakeSatellite packages(String label, int count) {
+        channel(label);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            Package pkg = new Package(sequence.incrementAndGet(), "pkg-" + (i % 50), "1." + (i / 50), String.valueOf(1 + i % 3), "", i % 4 == 0 ? "noarch" : "x86_64",
+                    new Date(now - (count - i) * 3600L * 1000L), Integer.toHexString(i * 31 + 7));
+            packages.put(pkg.id, pkg);
+            channels.get(label).put(pkg.id, pkg.lastModified);
+        }
+        return this;
+    }
+
+    /**
+     * unlink, removes the first packages from the channel like another Satellite client would
+     */
+    public synchronized FakeSatellite unlink(String label, int count) {
+        Iterator<Integer> ids = channels.get(label).keySet().iterator();
+        for (int i = 0; i < count && ids.hasNext(); i++) {
+            ids.next();
+            ids.remove();
+        }
+        return this;
+    }
+
+    /**
+     * delete, removes the package from Satellite and all channels like an administrator would
+     */
+    public synchronized FakeSatellite delete(String name, String version, String release) {
+        for (Iterator<Package> it = packages.values().iterator(); it.hasNext();) {
+            Package pkg = it.next();
+            if (pkg.name.equals(name) && pkg.version.equals(version) && pkg.release.equals(release)) {
+                it.remove();
+                for (Map<Integer, Date> ids : channels.values()) {
+                    ids.remove(pkg.id);
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * seed, adds the rpm files of the directory to the channel
+     */
+    public synchronized FakeSatellite seed(String label, File directory) {
+        channel(label);
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return this;
+        }
+        for (File file : files) {
+            if (!file.getName().endsWith(".rpm")) {
+                continue;
+            }
+            try {
+                InputStream in = new FileInputStream(file);
+                try {
+                    Package pkg = store(readFully(in));
+                    channels.get(label).put(pkg.id, new Date());
+                } finally {
+                    in.close();
+                }
+            } catch (IOException x) {
+                throw new IllegalStateException(x);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * configFile, adds a file to a configuration channel
+     */
+    public synchronized FakeSatellite configFile(String label, String path, String contents) {
+        Map<String, ConfigFile> files = configChannels.get(label);
+        if (files == null) {
+            files = new LinkedHashMap<String, ConfigFile>();
+            configChannels.put(label, files);
+        }
+        files.put(path, new ConfigFile(path, contents));
+        return this;
+    }
+
+    /**
+     * system, adds a system to a group
+     */
+    public synchronized FakeSatellite system(String group, String hostname) {
+        Map<Integer, String> systems = groups.get(group);
+        if (systems == null) {
+            systems = new LinkedHashMap<Integer, String>();
+            groups.put(group, systems);
+        }
+        systems.put(sequence.incrementAndGet(), hostname);
+        return this;
+    }
+
+    /**
+     * start on a free port of the loopback interface
+     */
+    public FakeSatellite start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/rpc/api", new RpcHandler());
+        server.createContext("/PACKAGE-PUSH", new PushHandler());
+        executor = Executors.newFixedThreadPool(32);
+        server.setExecutor(executor);
+        server.start();
+        return this;
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * getCalls, number of XML-RPC calls of the method, calls within a multicall included
+     */
+    public int getCalls(String method) {
+        AtomicInteger count = calls.get(method);
+        return count == null ? 0 : count.get();
+    }
+
+    public synchronized List<String> getPackageNames(String label) {
+        List<String> names = new ArrayList<String>();
+        Map<Integer, Date> ids = channels.get(label);
+        if (ids != null) {
+            for (Integer id : ids.keySet()) {
+                Package pkg = packages.get(id);
+                names.add(pkg.name + '-' + pkg.version + '-' + pkg.release);
+            }
+        }
+        return names;
+    }
+
+    public synchronized String getConfigContents(String label, String path) {
+        return configChannels.get(label).get(path).contents;
+    }
+
+    public List<String> getScripts() {
+        return scripts;
+    }
+
+    /**
+     * RpcHandler
+     */
+    private class RpcHandler implements HttpHandler {
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (delayOrFail(exchange)) {
+                    return;
+                }
+                String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+                boolean compressed = encoding != null && encoding.contains("gzip");
+                if (compressed && !gzip) {
+                    // read the rejected body, the connection is kept alive for the retry
+                    readFully(exchange.getRequestBody());
+                    respond(exchange, 415, null);
+                    return;
+                }
+                InputStream in = compressed ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody();
+                FakeXmlRpc.Call call = FakeXmlRpc.readCall(in);
+                Object result = null;
+                FakeXmlRpc.Fault fault = null;
+                try {
+                    if (0 < faults.get() && 0 <= faults.decrementAndGet()) {
+                        throw new FakeXmlRpc.Fault(-1, "injected fault");
+                    }
+                    result = dispatch(call.method, call.params);
+                } catch (FakeXmlRpc.Fault x) {
+                    fault = x;
+                }
+
+                String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                boolean gzipResponse = gzip && accept != null && accept.contains("gzip");
+                exchange.getResponseHeaders().set("Content-Type", "text/xml");
+                if (gzipResponse) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = gzipResponse ? new GZIPOutputStream(exchange.getResponseBody()) : exchange.getResponseBody();
+                if (fault == null) {
+                    FakeXmlRpc.writeResponse(out, result);
+                } else {
+                    FakeXmlRpc.writeFault(out, fault.code, fault.getMessage());
+                }
+                out.close();
+            } catch (Exception x) {
+                respond(exchange, 500, x.toString());
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * PushHandler, stores the uploaded rpm with name, version and release taken from its header
+     */
+    private class PushHandler implements HttpHandler {
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (delayOrFail(exchange)) {
+                    return;
+                }
+                if (!sessions.contains(exchange.getRequestHeaders().getFirst("X-RHN-Upload-Auth-Session"))) {
+                    exchange.getResponseHeaders().set("X-RHN-Upload-Error-String", Base64.encodeBase64String("invalid session".getBytes()));
+                    respond(exchange, 403, null);
+                    return;
+                }
+                byte[] rpm = readFully(exchange.getRequestBody());
+                String checksum = exchange.getRequestHeaders().getFirst("X-RHN-Upload-File-Checksum");
+                String checksumType = exchange.getRequestHeaders().getFirst("X-RHN-Upload-File-Checksum-Type");
+                String expected = "sha256".equals(checksumType) ? digest("SHA-256", rpm) : md5(rpm);
+                if (checksum != null && !checksum.equalsIgnoreCase(expected)) {
+                    respond(exchange, 400, "checksum mismatch");
+                    return;
+                }
+                store(rpm);
+                count("PACKAGE-PUSH");
+                respond(exchange, 200, null);
+            } catch (Exception x) {
+                respond(exchange, 500, x.toString());
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * delayOrFail, returns true if the request was answered with an injected failure
+     */
+    private boolean delayOrFail(HttpExchange exchange) throws IOException {
+        long delay = 0 < stalls.get() && 0 <= stalls.decrementAndGet() ? stallMillis : latency;
+        if (0 < delay) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        boolean fail = 0 < failures.get() && 0 <= failures.decrementAndGet();
+        if (!fail && 0 < failureRate) {
+            synchronized (random) {
+                fail = random.nextDouble() < failureRate;
+            }
+        }
+        if (fail) {
+            readFully(exchange.getRequestBody());
+            respond(exchange, failureStatus, "injected failure");
+        }
+        return fail;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body == null ? new byte[0] : body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (0 < bytes.length) {
+            exchange.getResponseBody().write(bytes);
+        }
+    }
+
+    /**
+     * dispatch
+     */
+    @SuppressWarnings("unchecked")
+    Object dispatch(String method, List<Object> params) {
+        if ("system.multicall".equals(method)) {
+            if (!multicall) {
+                throw new FakeXmlRpc.Fault(-1, "Unknown method: system.multicall");
+            }
+            List<Object> results = new ArrayList<Object>();
+            for (Object entry : (List<Object>) params.get(0)) {
+                Map<String, Object> call = (Map<String, Object>) entry;
+                try {
+                    results.add(Collections.singletonList(dispatch((String) call.get("methodName"), (List<Object>) call.get("params"))));
+                } catch (FakeXmlRpc.Fault fault) {
+                    results.add(FakeXmlRpc.fault(fault.code, fault.getMessage()));
+                }
+            }
+            return results;
+        }
+        count(method);
+        if ("auth.login".equals(method)) {
+            if (!USER.equals(params.get(0)) || !PASSWORD.equals(params.get(1))) {
+                throw new FakeXmlRpc.Fault(2950, "Either the password or username is incorrect.");
+            }
+            String key = UUID.randomUUID().toString().replace("-", "");
+            sessions.add(key);
+            return key;
+        }
+        if (!sessions.contains(params.get(0))) {
+            throw new FakeXmlRpc.Fault(-20, "Could not find session with key " + params.get(0));
+        }
+        if ("auth.logout".equals(method)) {
+            sessions.remove(params.get(0));
+            return 1;
+        }
+        synchronized (this) {
+            return invoke(method, params);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object invoke(String method, List<Object> params) {
+        if ("channel.listMyChannels".equals(method)) {
+            List<Object> result = new ArrayList<Object>();
+            for (String label : channels.keySet()) {
+                result.add(struct("id", label.hashCode(), "label", label, "name", label));
+            }
+            return result;
+        }
+        if ("channel.software.listAllPackages".equals(method)) {
+            List<Object> result = new ArrayList<Object>();
+            SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_PATTERN);
+            // startDate and endDate bound the time the package was added to the channel
+            Date startDate = params.size() < 3 ? null : (Date) params.get(2);
+            Date endDate = params.size() < 4 ? null : (Date) params.get(3);
+            for (Map.Entry<Integer, Date> entry : channelPackages((String) params.get(1)).entrySet()) {
+                if ((startDate != null && entry.getValue().before(startDate)) || (endDate != null && entry.getValue().after(endDate))) {
+                    continue;
+                }
+                Package pkg = packages.get(entry.getKey());
+                result.add(struct("id", pkg.id, "name", pkg.name, "version", pkg.version, "release", pkg.release, "epoch", pkg.epoch,
+                        "arch_label", pkg.arch, "checksum", pkg.checksum, "checksum_type", "md5", "last_modified_date", dateFormat.format(pkg.lastModified)));
+            }
+            return result;
+        }
+        if ("channel.software.addPackages".equals(method)) {
+            Map<Integer, Date> ids = channelPackages((String) params.get(1));
+            for (Object id : (List<Object>) params.get(2)) {
+                if (!packages.containsKey(id)) {
+                    throw new FakeXmlRpc.Fault(2400, "No such package: " + id);
+                }
+                ids.put((Integer) id, new Date());
+            }
+            return 1;
+        }
+        if ("channel.software.removePackages".equals(method)) {
+            channelPackages((String) params.get(1)).keySet().removeAll((List<Object>) params.get(2));
+            return 1;
+        }
+        if ("packages.removePackage".equals(method)) {
+            Integer id = (Integer) params.get(1);
+            if (packages.remove(id) == null) {
+                throw new FakeXmlRpc.Fault(2400, "No such package: " + id);
+            }
+            for (Map<Integer, Date> ids : channels.values()) {
+                ids.remove(id);
+            }
+            return 1;
+        }
+        if ("packages.findByNvrea".equals(method)) {
+            List<Object> result = new ArrayList<Object>();
+            String epoch = params.size() < 5 ? "" : (String) params.get(4);
+            String arch = params.size() < 6 ? "" : (String) params.get(5);
+            for (Package pkg : packages.values()) {
+                if (pkg.name.equals(params.get(1)) && pkg.version.equals(params.get(2)) && pkg.release.equals(params.get(3))
+                        && (epoch.length() == 0 || epoch.equals(pkg.epoch)) && (arch.length() == 0 || arch.equals(pkg.arch))) {
+                    result.add(struct("id", pkg.id, "name", pkg.name, "version", pkg.version, "release", pkg.release, "epoch", pkg.epoch,
+                            "arch_label", pkg.arch, "path", "/var/satellite/" + pkg.name, "provider", "Unknown", "last_modified", pkg.lastModified));
+                }
+            }
+            return result;
+        }
+        if ("packages.getDetails".equals(method)) {
+            Package pkg = packages.get(params.get(1));
+            if (pkg == null) {
+                throw new FakeXmlRpc.Fault(2400, "No such package: " + params.get(1));
+            }
+            return struct("id", pkg.id, "name", pkg.name, "version", pkg.version, "release", pkg.release, "epoch", pkg.epoch,
+                    "arch_label", pkg.arch, "checksum", pkg.checksum, "checksum_type", "md5", "last_modified_date", new SimpleDateFormat(DATE_PATTERN).format(pkg.lastModified));
+        }
+        if ("configchannel.listGlobals".equals(method)) {
+            List<Object> result = new ArrayList<Object>();
+            for (String label : configChannels.keySet()) {
+                result.add(struct("id", label.hashCode(), "label", label, "name", label));
+            }
+            return result;
+        }
+        if ("configchannel.listFiles".equals(method)) {
+            List<Object> result = new ArrayList<Object>();
+            for (ConfigFile file : configChannel((String) params.get(1)).values()) {
+                result.add(struct("type", "file", "path", file.path, "last_modified", file.modified));
+            }
+            return result;
+        }
+        if ("configchannel.lookupFileInfo".equals(method)) {
+            Map<String, ConfigFile> files = configChannel((String) params.get(1));
+            List<Object> result = new ArrayList<Object>();
+            for (Object path : (List<Object>) params.get(2)) {
+                ConfigFile file = files.get(path);
+                if (file != null) {
+                    result.add(file.toStruct((String) params.get(1)));
+                }
+            }
+            return result;
+        }
+        if ("configchannel.createOrUpdatePath".equals(method)) {
+            Map<String, ConfigFile> files = configChannel((String) params.get(1));
+            String path = (String) params.get(2);
+            Map<String, Object> data = (Map<String, Object>) params.get(4);
+            String contents = (String) data.get("contents");
+            if (Boolean.TRUE.equals(data.get("contents_enc64"))) {
+                contents = new String(Base64.decodeBase64(contents));
+            }
+            ConfigFile file = files.get(path);
+            if (file == null) {
+                file = new ConfigFile(path, contents);
+                files.put(path, file);
+            } else {
+                file.contents = contents;
+                file.revision = data.get("revision") instanceof Integer ? (Integer) data.get("revision") : file.revision + 1;
+                file.modified = new Date();
+            }
+            return file.toStruct((String) params.get(1));
+        }
+        if ("configchannel.deployAllSystems".equals(method)) {
+            configChannel((String) params.get(1));
+            return 1;
+        }
+        if ("systemgroup.listAllGroups".equals(method)) {
+            List<Object> result = new ArrayList<Object>();
+            for (Map.Entry<String, Map<Integer, String>> group : groups.entrySet()) {
+                result.add(struct("id", group.getKey().hashCode(), "name", group.getKey(), "description", group.getKey(), "system_count", group.getValue().size()));
+            }
+            return result;
+        }
+        if ("systemgroup.listSystems".equals(method)) {
+            Map<Integer, String> systems = groups.get(params.get(1));
+            if (systems == null) {
+                throw new FakeXmlRpc.Fault(2201, "Unable to locate or access server group: " + params.get(1));
+            }
+            List<Object> result = new ArrayList<Object>();
+            for (Map.Entry<Integer, String> system : systems.entrySet()) {
+                result.add(struct("id", system.getKey(), "hostname", system.getValue(), "profile_name", system.getValue()));
+            }
+            return result;
+        }
+        if ("system.scheduleScriptRun".equals(method)) {
+            scripts.add((String) params.get(5));
+            return sequence.incrementAndGet();
+        }
+        throw new FakeXmlRpc.Fault(-1, "Could not find method " + method);
+    }
+
+    private Map<Integer, Date> channelPackages(String label) {
+        Map<Integer, Date> ids = channels.get(label);
+        if (ids == null) {
+            throw new FakeXmlRpc.Fault(1200, "No such channel: " + label);
+        }
+        return ids;
+    }
+
+    private Map<String, ConfigFile> configChannel(String label) {
+        Map<String, ConfigFile> files = configChannels.get(label);
+        if (files == null) {
+            throw new FakeXmlRpc.Fault(1200, "No such config channel: " + label);
+        }
+        return files;
+    }
+
+    private void count(String method) {
+        AtomicInteger count = calls.get(method);
+        if (count == null) {
+            AtomicInteger created = new AtomicInteger();
+            count = calls.putIfAbsent(method, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * store an rpm, an already known NVREA keeps its id
+     */
+    private synchronized Package store(byte[] rpm) throws IOException {
+        Map<Integer, Object> header = readHeader(rpm);
+        String name = (String) header.get(1000);
+        String version = (String) header.get(1001);
+        String release = (String) header.get(1002);
+        String epoch = header.containsKey(1003) ? header.get(1003).toString() : "";
+        String arch = (String) header.get(1022);
+        for (Package pkg : packages.values()) {
+            if (pkg.name.equals(name) && pkg.version.equals(version) && pkg.release.equals(release) && pkg.epoch.equals(epoch) && pkg.arch.equals(arch)) {
+                return pkg;
+            }
+        }
+        Package pkg = new Package(sequence.incrementAndGet(), name, version, release, epoch, arch, new Date(), md5(rpm));
+        packages.put(pkg.id, pkg);
+        return pkg;
+    }
+
+    /**
+     * readHeader, string and int32 tags of the main header of an rpm
+     */
+    static Map<Integer, Object> readHeader(byte[] rpm) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(rpm));
+        in.skipBytes(96);
+        // signature header, padded to 8 bytes
+        in.skipBytes(8);
+        int entries = in.readInt();
+        int size = in.readInt();
+        int signature = 16 * entries + size;
+        in.skipBytes(signature + (8 - signature % 8) % 8);
+
+        in.skipBytes(8);
+        entries = in.readInt();
+        size = in.readInt();
+        int[][] index = new int[entries][];
+        for (int i = 0; i < entries; i++) {
+            index[i] = new int[] { in.readInt(), in.readInt(), in.readInt(), in.readInt() };
+        }
+        byte[] store = new byte[size];
+        in.readFully(store);
+
+        Map<Integer, Object> header = new HashMap<Integer, Object>();
+        for (int[] entry : index) {
+            int tag = entry[0];
+            int type = entry[1];
+            int offset = entry[2];
+            if (type == 6) {
+                int end = offset;
+                while (store[end] != 0) {
+                    end++;
+                }
+                header.put(tag, new String(store, offset, end - offset, "UTF-8"));
+            } else if (type == 4) {
+                header.put(tag, ((store[offset] & 0xff) << 24) | ((store[offset + 1] & 0xff) << 16) | ((store[offset + 2] & 0xff) << 8) | (store[offset + 3] & 0xff));
+            }
+        }
+        return header;
+    }
+
+    private static Map<String, Object> struct(Object... pairs) {
+        Map<String, Object> struct = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            struct.put((String) pairs[i], pairs[i + 1]);
+        }
+        return struct;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static String md5(byte[] data) {
+        return digest("MD5", data);
+    }
+
+    private static String digest(String algorithm, byte[] data) {
+        try {
+            return Hex.encodeHexString(MessageDigest.getInstance(algorithm).digest(data));
+        } catch (Exception x) {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    /**
+     * Package
+     */
+    private static class Package {
+        final int id;
+        final String name;
+        final String version;
+        final String release;
+        final String epoch;
+        final String arch;
+        final Date lastModified;
+        final String checksum;
+
+        Package(int id, String name, String version, String release, String epoch, String arch, Date lastModified, String checksum) {
+            this.id = id;
+            this.name = name;
+            this.version = version;
+            this.release = release;
+            this.epoch = epoch;
+            this.arch = arch;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+    }
+
+    /**
+     * ConfigFile
+     */
+    private static class ConfigFile {
+        final String path;
+        String contents;
+        int revision = 1;
+        Date modified = new Date();
+
+        ConfigFile(String path, String contents) {
+            this.path = path;
+            this.contents = contents;
+        }
+
+        Map<String, Object> toStruct(String channel) {
+            return struct("channel", channel, "path", path, "type", "file", "revision", revision, "creation", modified, "modified", modified,
+                    "owner", "root", "group", "root", "permissions", 644, "permissions_mode", "644", "contents", contents, "contents_enc64", Boolean.FALSE,
+                    "md5", md5(contents.getBytes()));
+        }
+    }
+
+}
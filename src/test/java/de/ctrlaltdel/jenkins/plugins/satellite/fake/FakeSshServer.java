@@ -0,0 +1,135 @@
+package de.ctrlaltdel.jenkins.plugins.satellite.fake;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sshd.SshServer;
+import org.apache.sshd.server.Command;
+import org.apache.sshd.server.CommandFactory;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.PasswordAuthenticator;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.session.ServerSession;
+
+/**
+ * FakeSshServer, accepts every command of {@link FakeSatellite#USER}, answers after the configured latency
+ * with a line of output and exit status 0
+ * @author ds
+ */
+public class FakeSshServer {
+
+    private final AtomicInteger commands = new AtomicInteger();
+    private volatile long latency;
+    private SshServer sshd;
+    private int port;
+
+    /**
+     * latency of every command in milliseconds
+     */
+    public FakeSshServer latency(long millis) {
+        this.latency = millis;
+        return this;
+    }
+
+    /**
+     * start on a free port of the loopback interface
+     */
+    public FakeSshServer start() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        port = socket.getLocalPort();
+        socket.close();
+
+        sshd = SshServer.setUpDefaultServer();
+        sshd.setHost("127.0.0.1");
+        sshd.setPort(port);
+        // RSA, newer JDKs refuse SHA-1 signatures with the default DSA key size
+        sshd.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(null, "RSA"));
+        sshd.setPasswordAuthenticator(new PasswordAuthenticator() {
+            public boolean authenticate(String username, String password, ServerSession session) {
+                return FakeSatellite.USER.equals(username) && FakeSatellite.PASSWORD.equals(password);
+            }
+        });
+        sshd.setCommandFactory(new CommandFactory() {
+            public Command createCommand(String command) {
+                return new FakeCommand();
+            }
+        });
+        sshd.start();
+        return this;
+    }
+
+    public void stop() throws InterruptedException {
+        if (sshd != null) {
+            sshd.stop(true);
+            sshd = null;
+        }
+    }
+
+    /**
+     * getHost, system hostname of the {@link FakeSatellite}
+     */
+    public String getHost() {
+        return "127.0.0.1";
+    }
+
+    /**
+     * getPort, to be set as ssh port of the configuration
+     */
+    public int getPort() {
+        return port;
+    }
+
+    public int getCommands() {
+        return commands.get();
+    }
+
+    /**
+     * FakeCommand
+     */
+    private class FakeCommand implements Command, Runnable {
+        private OutputStream out;
+        private ExitCallback callback;
+
+        public void setInputStream(InputStream in) {
+        }
+
+        public void setOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        public void setErrorStream(OutputStream err) {
+        }
+
+        public void setExitCallback(ExitCallback callback) {
+            this.callback = callback;
+        }
+
+        public void start(Environment env) throws IOException {
+            Thread thread = new Thread(this, "fake-ssh-command");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public void run() {
+            try {
+                if (0 < latency) {
+                    Thread.sleep(latency);
+                }
+                out.write(("executed " + commands.incrementAndGet() + "\n").getBytes());
+                out.flush();
+            } catch (Exception x) {
+                // client is gone
+            } finally {
+                callback.onExit(0);
+            }
+        }
+
+        public void destroy() {
+        }
+    }
+
+}
@@ -0,0 +1,270 @@
+package de.ctrlaltdel.jenkins.plugins.satellite.fake;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * FakeXmlRpc, server side XML-RPC codec of the {@link FakeSatellite}
+ * @author ds
+ */
+class FakeXmlRpc {
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+    private static final String DATE_PATTERN = "yyyyMMdd'T'HH:mm:ss";
+
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    }
+
+    /**
+     * Call, method name and parameters of a request
+     */
+    static class Call {
+        final String method;
+        final List<Object> params;
+
+        Call(String method, List<Object> params) {
+            this.method = method;
+            this.params = params;
+        }
+    }
+
+    /**
+     * Fault
+     */
+    static class Fault extends RuntimeException {
+        final int code;
+
+        Fault(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    private FakeXmlRpc() {
+    }
+
+    /**
+     * readCall
+     */
+    static Call readCall(InputStream in) throws XMLStreamException {
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+        String method = null;
+        List<Object> params = new ArrayList<Object>();
+        while (reader.hasNext()) {
+            if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            if ("methodName".equals(reader.getLocalName())) {
+                method = reader.getElementText().trim();
+            } else if ("value".equals(reader.getLocalName())) {
+                params.add(readValue(reader));
+            }
+        }
+        reader.close();
+        return new Call(method, params);
+    }
+
+    /**
+     * writeResponse
+     */
+    static void writeResponse(OutputStream out, Object value) throws XMLStreamException {
+        XMLStreamWriter writer = start(out);
+        writer.writeStartElement("params");
+        writer.writeStartElement("param");
+        writeValue(writer, value);
+        writer.writeEndElement();
+        writer.writeEndElement();
+        end(writer);
+    }
+
+    /**
+     * writeFault
+     */
+    static void writeFault(OutputStream out, int code, String message) throws XMLStreamException {
+        XMLStreamWriter writer = start(out);
+        writer.writeStartElement("fault");
+        writeValue(writer, fault(code, message));
+        writer.writeEndElement();
+        end(writer);
+    }
+
+    /**
+     * fault struct as used in responses and <code>system.multicall</code> results
+     */
+    static Map<String, Object> fault(int code, String message) {
+        Map<String, Object> fault = new HashMap<String, Object>();
+        fault.put("faultCode", code);
+        fault.put("faultString", message);
+        return fault;
+    }
+
+    private static XMLStreamWriter start(OutputStream out) throws XMLStreamException {
+        XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.writeStartElement("methodResponse");
+        return writer;
+    }
+
+    private static void end(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+        writer.close();
+    }
+
+    private static Object readValue(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        Object value = null;
+        boolean typed = false;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                if (!typed) {
+                    text.append(reader.getText());
+                }
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                typed = true;
+                value = readTyped(reader);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return typed ? value : text.toString();
+            }
+        }
+        throw new XMLStreamException("unexpected end of value");
+    }
+
+    private static Object readTyped(XMLStreamReader reader) throws XMLStreamException {
+        String type = reader.getLocalName();
+        if ("struct".equals(type)) {
+            Map<String, Object> struct = new HashMap<String, Object>();
+            String name = null;
+            while (next(reader, "struct")) {
+                if ("name".equals(reader.getLocalName())) {
+                    name = reader.getElementText();
+                } else if ("value".equals(reader.getLocalName())) {
+                    struct.put(name, readValue(reader));
+                }
+            }
+            return struct;
+        }
+        if ("array".equals(type)) {
+            List<Object> list = new ArrayList<Object>();
+            while (next(reader, "array")) {
+                if ("value".equals(reader.getLocalName())) {
+                    list.add(readValue(reader));
+                }
+            }
+            return list;
+        }
+        if ("nil".equals(type)) {
+            next(reader, "nil");
+            return null;
+        }
+        String text = reader.getElementText().trim();
+        if ("int".equals(type) || "i4".equals(type)) {
+            return Integer.valueOf(text);
+        }
+        if ("i8".equals(type)) {
+            return Long.valueOf(text);
+        }
+        if ("boolean".equals(type)) {
+            return "1".equals(text) || "true".equalsIgnoreCase(text);
+        }
+        if ("double".equals(type)) {
+            return Double.valueOf(text);
+        }
+        if ("dateTime.iso8601".equals(type)) {
+            try {
+                return new SimpleDateFormat(DATE_PATTERN).parse(text);
+            } catch (Exception x) {
+                throw new XMLStreamException("Invalid dateTime.iso8601: " + text);
+            }
+        }
+        if ("base64".equals(type)) {
+            return Base64.decodeBase64(text);
+        }
+        return text;
+    }
+
+    /**
+     * next, moves to the next start element below the parent, false when the parent ends
+     */
+    private static boolean next(XMLStreamReader reader, String parent) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+            if (event == XMLStreamConstants.END_ELEMENT && parent.equals(reader.getLocalName())) {
+                return false;
+            }
+        }
+        throw new XMLStreamException("unexpected end of " + parent);
+    }
+
+    private static void writeValue(XMLStreamWriter writer, Object value) throws XMLStreamException {
+        writer.writeStartElement("value");
+        if (value instanceof Integer) {
+            element(writer, "int", value.toString());
+        } else if (value instanceof Long) {
+            element(writer, "i8", value.toString());
+        } else if (value instanceof Boolean) {
+            element(writer, "boolean", ((Boolean) value) ? "1" : "0");
+        } else if (value instanceof Double) {
+            element(writer, "double", value.toString());
+        } else if (value instanceof Date) {
+            element(writer, "dateTime.iso8601", new SimpleDateFormat(DATE_PATTERN).format((Date) value));
+        } else if (value instanceof byte[]) {
+            element(writer, "base64", Base64.encodeBase64String((byte[]) value));
+        } else if (value instanceof Collection || value instanceof Object[]) {
+            Collection<?> elements = value instanceof Collection ? (Collection<?>) value : Arrays.asList((Object[]) value);
+            writer.writeStartElement("array");
+            writer.writeStartElement("data");
+            for (Object element : elements) {
+                writeValue(writer, element);
+            }
+            writer.writeEndElement();
+            writer.writeEndElement();
+        } else if (value instanceof Map) {
+            writer.writeStartElement("struct");
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                writer.writeStartElement("member");
+                element(writer, "name", String.valueOf(entry.getKey()));
+                writeValue(writer, entry.getValue());
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+        } else if (value == null) {
+            writer.writeEmptyElement("nil");
+        } else {
+            element(writer, "string", value.toString());
+        }
+        writer.writeEndElement();
+    }
+
+    private static void element(XMLStreamWriter writer, String name, String text) throws XMLStreamException {
+        writer.writeStartElement(name);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+    }
+
+}